@@ -45,18 +45,64 @@ function App() {
     setIsLoading(true);
 
     try {
-      // 2. Call Spring Boot API
-      const response = await fetch('http://localhost:8080/api/ask', {
+      // 2. Call the streaming Spring Boot API (Server-Sent Events over a POST)
+      const response = await fetch('http://localhost:8080/api/ask/stream', {
         method: 'POST',
+        credentials: 'include', // the sign-in session; the server scopes the search to that account
         headers: { 'Content-Type': 'application/json' },
         body: JSON.stringify({ question: input }),
       });
-
-      const data = await response.json();
-
-      // 3. Add Bot Response (TypeScript validates this object structure)
-      const botResponse: ChatMessage = { role: 'bot', content: data.answer }; // TS check
-      setMessages((prevMessages) => [...prevMessages, botResponse]);
+      if (response.status === 503) {
+        const retryAfter = response.headers.get('Retry-After') ?? 'a few';
+        setMessages((prevMessages) => [...prevMessages, { role: 'bot', content: `I'm busy right now, please ask again in ${retryAfter} seconds.` }]);
+        return;
+      }
+      if (response.status === 401) {
+        setMessages((prevMessages) => [...prevMessages, { role: 'bot', content: "Please sign in so I can look through your notes." }]);
+        return;
+      }
+      if (!response.ok || !response.body) throw new Error(`HTTP ${response.status}`);
+
+      // 3. Add the Bot Response on the first token and grow it as more arrive
+      let started = false;
+      const appendToBot = (text: string) => {
+        const isFirst = !started;
+        started = true;
+        setIsLoading(false); // hide the spinner once text starts flowing
+        setMessages((prevMessages) => {
+          if (isFirst) return [...prevMessages, { role: 'bot', content: text }];
+          const last = prevMessages[prevMessages.length - 1];
+          return [...prevMessages.slice(0, -1), { ...last, content: last.content + text }];
+        });
+      };
+
+      const reader = response.body.getReader();
+      const decoder = new TextDecoder();
+      let buffer = '';
+      while (true) {
+        const { done, value } = await reader.read();
+        if (done) break;
+        buffer += decoder.decode(value, { stream: true });
+
+        // Events are separated by a blank line; keep any partial event in the buffer
+        const events = buffer.split('\n\n');
+        buffer = events.pop() ?? '';
+        for (const rawEvent of events) {
+          let eventName = 'message';
+          let data = '';
+          for (const line of rawEvent.split('\n')) {
+            if (line.startsWith('event:')) eventName = line.slice(6).trim();
+            else if (line.startsWith('data:')) data += line.slice(5);
+          }
+          if (eventName === 'token') {
+            appendToBot(JSON.parse(data).token);
+          } else if (eventName === 'error') {
+            const error = JSON.parse(data);
+            // 503: a dependency was saturated after the stream started, same as the 503 above
+            appendToBot(error.code === '503' ? "I'm busy right now, please ask again in a few seconds." : error.answer);
+          }
+        }
+      }
 
     } catch (error) {
       console.error("Error:", error);
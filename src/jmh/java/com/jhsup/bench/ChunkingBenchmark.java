@@ -0,0 +1,59 @@
+package com.jhsup.bench;
+
+import com.jhsup.ProcessingCode.Chunker;
+import com.jhsup.ProcessingCode.DocumentProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunking throughput on the lecture notes, as prose (paragraphs) and as an extracted slide
+ * deck (form feeds). Compare the lazy views over a CharSequence, the windowed Reader path the
+ * PDF ingestion uses, and splitText, which copies every chunk into a String.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+
+    @Param({"notes", "slides"})
+    public String corpus;
+
+    @Param({"65536", "1048576"})
+    public int chars;
+
+    private final Chunker chunker = new Chunker(256, 128);
+    private String text;
+    private String filename;
+
+    @Setup
+    public void setUp() {
+        boolean slides = corpus.equals("slides");
+        text = Fixtures.notesCorpus(chars, slides);
+        filename = slides ? "notes.pptx" : "notes.docx";
+    }
+
+    @Benchmark
+    public void chunkSequence(Blackhole bh) {
+        for (Chunker.Chunk chunk : chunker.chunks(text)) {
+            bh.consume(chunk);
+        }
+    }
+
+    @Benchmark
+    public void chunkReader(Blackhole bh) {
+        for (Chunker.Chunk chunk : chunker.chunks(new StringReader(text))) {
+            bh.consume(chunk);
+        }
+    }
+
+    @Benchmark
+    public DocumentProcessor.ChunkedText splitText() {
+        return DocumentProcessor.splitText(filename, text);
+    }
+}
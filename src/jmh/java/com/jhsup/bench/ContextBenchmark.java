@@ -0,0 +1,65 @@
+package com.jhsup.bench;
+
+import com.jhsup.ContextPacker;
+import com.jhsup.ProcessingCode.Chunker;
+import com.jhsup.ProcessingCode.SparseEncoder;
+import com.jhsup.ProcessingCode.SparseVector;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Context assembly for one question: packing the retrieved chunks into the token budget
+ * (merge, dedup, optional MMR, token counting) and encoding the sparse query. The hits are
+ * real chunks of the lecture notes, with neighbours and a duplicate from a second "deck"
+ * so every packing step has work to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextBenchmark {
+
+    /** 1.0 keeps the retrieval order, lower values turn on MMR. */
+    @Param({"1.0", "0.7"})
+    public double mmrLambda;
+
+    private ContextPacker packer;
+    private List<ContextPacker.Candidate> candidates;
+
+    @Setup
+    public void setUp() {
+        packer = new ContextPacker(Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.O200K_BASE),
+                2000, 0.8, mmrLambda);
+
+        List<String> chunks = new ArrayList<>();
+        for (Chunker.Chunk chunk : new Chunker(256, 128).chunks(Fixtures.text("notes.txt"))) {
+            chunks.add(chunk.text().toString());
+        }
+
+        // Two runs of neighbours, scattered single hits and the same chunk in another file
+        int[] hits = {4, 5, 1, 9, 6, 2, 11, 0};
+        candidates = new ArrayList<>();
+        for (int rank = 0; rank < hits.length; rank++) {
+            int index = hits[rank] % chunks.size();
+            candidates.add(new ContextPacker.Candidate("lecture14.pdf", index, index / 3 + 1, chunks.get(index), rank));
+        }
+        candidates.add(new ContextPacker.Candidate("lecture14-annotated.pdf", 4, 2, chunks.get(4 % chunks.size()), hits.length));
+    }
+
+    @Benchmark
+    public ContextPacker.Packed pack() {
+        return packer.pack(candidates);
+    }
+
+    @Benchmark
+    public SparseVector encodeQuery() {
+        return SparseEncoder.encodeQuery("How do I reduce 3SAT to CLIQUE for the CS 4510 midterm?");
+    }
+}
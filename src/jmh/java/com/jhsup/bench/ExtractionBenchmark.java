@@ -0,0 +1,53 @@
+package com.jhsup.bench;
+
+import com.jhsup.ProcessingCode.DocumentProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text extraction from the checked-in PDF, DOCX and PPTX versions of the lecture notes, and
+ * the streamed PDF path that strips and chunks a window of pages at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Document {
+        @Param({"notes.pdf", "notes.docx", "notes.pptx"})
+        public String fixture;
+
+        byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            bytes = Fixtures.bytes(fixture);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Pdf {
+        byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            bytes = Fixtures.bytes("notes.pdf");
+        }
+    }
+
+    @Benchmark
+    public String extractText(Document document) throws Exception {
+        return DocumentProcessor.extractText(document.fixture, new ByteArrayInputStream(document.bytes));
+    }
+
+    /** Compare with extractText on notes.pdf: the same parse, plus chunking, in page windows. */
+    @Benchmark
+    public DocumentProcessor.ChunkedText chunkPdf(Pdf pdf) throws Exception {
+        return DocumentProcessor.chunkPdf(new ByteArrayInputStream(pdf.bytes));
+    }
+}
@@ -0,0 +1,137 @@
+package com.jhsup.bench;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.awt.Rectangle;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Regenerates the binary fixtures in src/jmh/resources/fixtures from notes.txt, so the
+ * extraction benchmarks read the same lecture notes as PDF, DOCX and PPTX. The output is
+ * checked in; run this only when the corpus changes:
+ *   mvn -Pjmh compile exec:java -Dexec.mainClass=com.jhsup.bench.FixtureGenerator
+ */
+public class FixtureGenerator {
+
+    static final Path FIXTURES = Path.of("src/jmh/resources/fixtures");
+
+    // The notes are repeated so the PDF has enough pages for several reader windows
+    private static final int COPIES = 6;
+    private static final int LINES_PER_PAGE = 46;
+    private static final int CHARS_PER_LINE = 95;
+
+    public static void main(String[] args) throws Exception {
+        List<String> paragraphs = paragraphs(Files.readString(FIXTURES.resolve("notes.txt"), StandardCharsets.UTF_8));
+
+        writePdf(paragraphs, FIXTURES.resolve("notes.pdf"));
+        writeDocx(paragraphs, FIXTURES.resolve("notes.docx"));
+        writePptx(paragraphs, FIXTURES.resolve("notes.pptx"));
+        System.out.println("Wrote fixtures to " + FIXTURES.toAbsolutePath());
+    }
+
+    /** Blocks separated by blank lines; the first line of a block is its heading. */
+    private static List<String> paragraphs(String text) {
+        List<String> paragraphs = new ArrayList<>();
+        for (int copy = 0; copy < COPIES; copy++) {
+            for (String block : text.split("\n\\s*\n")) {
+                if (!block.isBlank()) paragraphs.add(block.strip());
+            }
+        }
+        return paragraphs;
+    }
+
+    // ------------------- PDF -------------------
+
+    private static void writePdf(List<String> paragraphs, Path out) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : paragraphs) {
+            for (String line : paragraph.split("\n")) {
+                wrap(line, lines);
+            }
+            lines.add("");
+        }
+
+        try (PDDocument doc = new PDDocument()) {
+            for (int from = 0; from < lines.size(); from += LINES_PER_PAGE) {
+                PDPage page = new PDPage(PDRectangle.LETTER);
+                doc.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(50, 740);
+                    for (String line : lines.subList(from, Math.min(lines.size(), from + LINES_PER_PAGE))) {
+                        content.showText(line);
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            doc.save(out.toFile());
+        }
+    }
+
+    private static void wrap(String line, List<String> lines) {
+        // The standard 14 fonts only cover WinAnsi
+        line = line.replace("\t", "    ");
+        while (line.length() > CHARS_PER_LINE) {
+            int cut = line.lastIndexOf(' ', CHARS_PER_LINE);
+            if (cut <= 0) cut = CHARS_PER_LINE;
+            lines.add(line.substring(0, cut));
+            line = line.substring(cut).stripLeading();
+        }
+        lines.add(line);
+    }
+
+    // ------------------- DOCX -------------------
+
+    private static void writeDocx(List<String> paragraphs, Path out) throws Exception {
+        try (XWPFDocument doc = new XWPFDocument(); OutputStream os = new FileOutputStream(out.toFile())) {
+            for (String paragraph : paragraphs) {
+                for (String line : paragraph.split("\n")) {
+                    doc.createParagraph().createRun().setText(line);
+                }
+                doc.createParagraph();
+            }
+            doc.write(os);
+        }
+    }
+
+    // ------------------- PPTX -------------------
+
+    /** One slide per block: the heading as title, the rest as the body. */
+    private static void writePptx(List<String> paragraphs, Path out) throws Exception {
+        try (XMLSlideShow ppt = new XMLSlideShow(); OutputStream os = new FileOutputStream(out.toFile())) {
+            for (String paragraph : paragraphs) {
+                XSLFSlide slide = ppt.createSlide();
+                int newline = paragraph.indexOf('\n');
+                String title = newline < 0 ? paragraph : paragraph.substring(0, newline);
+                String body = newline < 0 ? "" : paragraph.substring(newline + 1);
+
+                XSLFTextBox titleBox = slide.createTextBox();
+                titleBox.setAnchor(new Rectangle(40, 20, 640, 50));
+                titleBox.setText(title);
+                if (!body.isEmpty()) {
+                    XSLFTextBox bodyBox = slide.createTextBox();
+                    bodyBox.setAnchor(new Rectangle(40, 80, 640, 420));
+                    bodyBox.setText(body);
+                }
+            }
+            ppt.write(os);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.jhsup.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/** The checked-in fixture documents, read from the classpath (src/jmh/resources/fixtures). */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static byte[] bytes(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) throw new IllegalStateException("Missing fixture " + name + ", see FixtureGenerator");
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static String text(String name) {
+        return new String(bytes(name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The lecture notes repeated to about {@code chars} characters, as one document.
+     * @param slides Whether each block ends with a form feed like an extracted slide deck.
+     */
+    public static String notesCorpus(int chars, boolean slides) {
+        String notes = text("notes.txt");
+        String separator = slides ? "\f" : "\n\n";
+        StringBuilder sb = new StringBuilder(chars + notes.length());
+        while (sb.length() < chars) {
+            for (String block : notes.split("\n\\s*\n")) {
+                sb.append(block.strip()).append(separator);
+            }
+        }
+        return sb.toString();
+    }
+}
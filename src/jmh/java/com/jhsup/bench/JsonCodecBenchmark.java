@@ -0,0 +1,204 @@
+package com.jhsup.bench;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jhsup.ProcessingCode.Embedding;
+import com.jhsup.ProcessingCode.QdrantClient;
+import com.jhsup.ProcessingCode.QdrantVectorStore;
+import com.jhsup.ProcessingCode.SparseEncoder;
+import com.jhsup.ProcessingCode.SparseVector;
+import com.jhsup.ProcessingCode.Tenant;
+import com.jhsup.ProcessingCode.VectorStore;
+import com.jhsup.loadtest.LatencyModel;
+import com.jhsup.loadtest.QdrantStandIn;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encode and decode on the embedding and search paths, without a network: point
+ * upserts, the OpenAI embeddings response (number arrays and base64), and dense and hybrid
+ * searches. A search goes through the store's public API with an HTTP client that answers
+ * from memory: it encodes the request body, which the client drains, and stream-decodes a
+ * canned response of HITS hits. The collection metadata a hybrid search checks once is
+ * served by a {@link QdrantStandIn}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    private static final int DIMENSIONS = 1536;
+    private static final int BATCH = 16;
+    private static final int HITS = 8;
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private QdrantStandIn qdrant;
+    private QdrantVectorStore store;
+
+    private float[] vector;
+    private SparseVector sparse;
+    private Map<String, Object> payload;
+    private byte[] embeddingsJson;
+    private byte[] embeddingsBase64;
+    private byte[] hitsJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Before QdrantClient is loaded, which reads QDRANT_URL once
+        qdrant = new QdrantStandIn(DIMENSIONS, LatencyModel.parse("fixed:0"), 0);
+        qdrant.start();
+        System.setProperty("QDRANT_URL", qdrant.getUrl());
+
+        Random random = new Random(42);
+        vector = randomVector(random);
+        String chunk = Fixtures.text("notes.txt").substring(0, 1000);
+        sparse = SparseEncoder.encodeDocument(chunk);
+        payload = VectorStore.chunkPayload("cs4510/lecture14.pdf", 3);
+        payload.put("page", 2);
+
+        embeddingsJson = embeddingsResponse(random, false);
+        embeddingsBase64 = embeddingsResponse(random, true);
+        hitsJson = hitsResponse(chunk);
+
+        OkHttpClient answersFromMemory = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    chain.request().body().writeTo(new Buffer());
+                    return new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(hitsJson, JSON))
+                            .build();
+                })
+                .build();
+        store = new QdrantVectorStore("bench", DIMENSIONS, "Cosine", answersFromMemory);
+    }
+
+    @TearDown
+    public void tearDown() {
+        qdrant.close();
+    }
+
+    // ------------------- Encode -------------------
+
+    @Benchmark
+    public byte[] serializePoint() throws IOException {
+        return QdrantClient.serializePoint(7L, vector, payload);
+    }
+
+    @Benchmark
+    public byte[] serializePointWithSparse() throws IOException {
+        return QdrantClient.serializePoint(7L, vector, sparse, payload);
+    }
+
+    // ------------------- Decode -------------------
+
+    @Benchmark
+    public Embedding[] parseEmbeddings() throws IOException {
+        return Embedding.parseResponse(new ByteArrayInputStream(embeddingsJson), BATCH);
+    }
+
+    @Benchmark
+    public Embedding[] parseEmbeddingsBase64() throws IOException {
+        return Embedding.parseResponse(new ByteArrayInputStream(embeddingsBase64), BATCH);
+    }
+
+    // ------------------- Search round trip -------------------
+
+    @Benchmark
+    public List<VectorStore.Hit> search() throws Exception {
+        return store.search(vector, null, HITS, 0.3, Tenant.of("student@example.com", null));
+    }
+
+    @Benchmark
+    public List<VectorStore.Hit> hybridSearch() throws Exception {
+        return store.search(vector, sparse, HITS, 0.3, Tenant.of("student@example.com", null));
+    }
+
+    // ------------------- Fixture responses -------------------
+
+    private static float[] randomVector(Random random) {
+        float[] v = new float[DIMENSIONS];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = (float) random.nextGaussian() * 0.03f;
+        }
+        return v;
+    }
+
+    /** An /v1/embeddings response for a batch of BATCH inputs. */
+    private byte[] embeddingsResponse(Random random, boolean base64) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator g = mapper.getFactory().createGenerator(out)) {
+            g.writeStartObject();
+            g.writeStringField("object", "list");
+            g.writeArrayFieldStart("data");
+            for (int i = 0; i < BATCH; i++) {
+                float[] v = randomVector(random);
+                g.writeStartObject();
+                g.writeStringField("object", "embedding");
+                g.writeNumberField("index", i);
+                g.writeFieldName("embedding");
+                if (base64) {
+                    ByteBuffer bytes = ByteBuffer.allocate(v.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+                    bytes.asFloatBuffer().put(v);
+                    g.writeString(Base64.getEncoder().encodeToString(bytes.array()));
+                } else {
+                    Embedding.write(g, v);
+                }
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeStringField("model", "text-embedding-3-small");
+            g.writeObjectFieldStart("usage");
+            g.writeNumberField("prompt_tokens", BATCH * 256);
+            g.writeNumberField("total_tokens", BATCH * 256);
+            g.writeEndObject();
+            g.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /** A /points/search response with HITS hits that carry their chunk text. */
+    private byte[] hitsResponse(String chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator g = mapper.getFactory().createGenerator(out)) {
+            g.writeStartObject();
+            g.writeArrayFieldStart("result");
+            for (int i = 0; i < HITS; i++) {
+                g.writeStartObject();
+                g.writeNumberField("id", 1000L + i);
+                g.writeNumberField("version", 3);
+                g.writeNumberField("score", 0.8 - i * 0.02);
+                g.writeObjectField("payload", VectorStore.chunkPayload("cs4510/lecture14.pdf", i, chunk));
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeStringField("status", "ok");
+            g.writeNumberField("time", 0.0021);
+            g.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,42 @@
+package com.jhsup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps how many calls to one outbound dependency (embeddings, Qdrant, chat) run at once.
+ * A caller that can't get a permit within the acquire timeout fails fast instead of queueing
+ * behind a slow dependency.
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final long acquireTimeoutMillis;
+
+    public Bulkhead(String name, int maxConcurrent, long acquireTimeoutMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    public <T> T call(Callable<T> action) throws Exception {
+        if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new RejectedExecutionException("Too many concurrent " + name + " calls, try again shortly");
+        }
+        try {
+            return action.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** Calls currently holding a permit. */
+    public int inFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+}
@@ -1,18 +1,47 @@
 package com.jhsup;
 
+import com.jhsup.ProcessingCode.ChunkStore;
+import com.jhsup.ProcessingCode.Embedding;
+import com.jhsup.ProcessingCode.EmbeddingService;
+import com.jhsup.ProcessingCode.HnswVectorStore;
+import com.jhsup.ProcessingCode.QdrantClient;
+import com.jhsup.ProcessingCode.Settings;
+import com.jhsup.ProcessingCode.SparseEncoder;
+import com.jhsup.ProcessingCode.SparseVector;
+import com.jhsup.ProcessingCode.Telemetry;
+import com.jhsup.ProcessingCode.Tenant;
+import com.jhsup.ProcessingCode.VectorStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
 import okhttp3.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.*;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
 public class ChatComplete {
 
-    private static final String API_KEY = System.getenv("OPENAI_KEY");
-    private static final String QDRANT_URL = "http://localhost:6333";
-    private static final String EMBEDDING_MODEL = "text-embedding-3-small";
+    private static final Logger log = LoggerFactory.getLogger(ChatComplete.class);
+
+    private static final String API_KEY = Settings.get("OPENAI_KEY", null);
+    // QDRANT_URL and OPENAI_BASE_URL are shared with ingestion
+    private static final String QDRANT_URL = QdrantClient.QDRANT_URL;
+    private static final String OPENAI_BASE_URL = EmbeddingService.OPENAI_BASE_URL;
     private static final String CHAT_MODEL = "gpt-4o-mini"; // Use "gpt-4o" for smarter, costlier results
-    private static final String COLLECTION_NAME = "class_notes";
+    private static final String COLLECTION_NAME = Settings.get("COLLECTION_NAME", "class_notes");
+    private static final int VECTOR_SIZE = EmbeddingService.DIMENSIONS; // EMBEDDING_DIMENSIONS, same as ingestion
+    // Hybrid retrieval ranks exact terms (course codes, theorem names) well, so a small k suffices
+    private static final int RETRIEVAL_LIMIT = Settings.getInt("RETRIEVAL_LIMIT", 8);
+    private static final double RETRIEVAL_MIN_SCORE = Settings.getDouble("RETRIEVAL_MIN_SCORE", 0.2);
+    private static final String NO_CONTEXT_ANSWER = "I couldn't find any relevant notes in your database.";
 
     private static final OkHttpClient client = new OkHttpClient.Builder()
             .connectTimeout(60, TimeUnit.SECONDS)
@@ -20,81 +49,259 @@ public class ChatComplete {
             .build();
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    // --- Per-dependency timeouts and concurrency limits ---
+    // Each client shares the connection pool above but has its own total call timeout
+    private static final OkHttpClient embeddingClient = client.newBuilder()
+            .callTimeout(Settings.getLong("EMBEDDING_TIMEOUT_MS", 10_000), TimeUnit.MILLISECONDS)
+            .build();
+    private static final OkHttpClient qdrantClient = client.newBuilder()
+            .callTimeout(Settings.getLong("QDRANT_TIMEOUT_MS", 5_000), TimeUnit.MILLISECONDS)
+            .build();
+    private static final OkHttpClient chatClient = client.newBuilder()
+            .callTimeout(Settings.getLong("CHAT_TIMEOUT_MS", 120_000), TimeUnit.MILLISECONDS)
+            .build();
+
+    private static final long BULKHEAD_WAIT_MS = Settings.getLong("DEPENDENCY_ACQUIRE_TIMEOUT_MS", 2_000);
+    private static final Bulkhead embeddingCalls = new Bulkhead("embedding", Settings.getInt("EMBEDDING_MAX_CONCURRENCY", 64), BULKHEAD_WAIT_MS);
+    private static final Bulkhead qdrantCalls = new Bulkhead("Qdrant", Settings.getInt("QDRANT_MAX_CONCURRENCY", 64), BULKHEAD_WAIT_MS);
+    private static final Bulkhead chatCalls = new Bulkhead("chat completion", Settings.getInt("CHAT_MAX_CONCURRENCY", 32), BULKHEAD_WAIT_MS);
+
+    // Repeated questions (e.g. the same exam topic) reuse the query vector
+    private static final QueryEmbeddingCache embeddingCache = QueryEmbeddingCache.fromSettings();
+
+    // Paraphrased questions reuse a full answer while the collection is unchanged
+    private static final SemanticAnswerCache answerCache = SemanticAnswerCache.fromSettings();
+
+    // Qdrant over REST, or the in-process index when VECTOR_STORE=embedded
+    private static final VectorStore vectorStore = VectorStore.fromSettings(COLLECTION_NAME, VECTOR_SIZE, "Cosine", qdrantClient);
+    // Polled in the background; the embedded index counts its own writes instead
+    private static final IndexGeneration indexGeneration = vectorStore instanceof HnswVectorStore ? null : new IndexGeneration(
+            qdrantClient, QDRANT_URL + "/collections/" + COLLECTION_NAME,
+            Settings.getLong("INDEX_GENERATION_POLL_SECONDS", 10) * 1000L);
+    // Chunk text by point ID; the vector store only returns IDs and a minimal payload
+    private static final ChunkStore chunkStore = ChunkStore.open();
+    // Builds the context block within CONTEXT_TOKEN_BUDGET, counted with the chat model's tokenizer
+    private static final ContextPacker contextPacker = ContextPacker.fromSettings(CHAT_MODEL);
+
+    // --- Metrics (see Telemetry); the dependency calls are timed where they are made ---
+    private static final DistributionSummary contextTokens = DistributionSummary.builder("jarvis.context.tokens")
+            .baseUnit("tokens")
+            .description("Size of the packed context block per question")
+            .register(Telemetry.meters());
+    private static final Timer firstToken = Timer.builder("jarvis.chat.first.token")
+            .description("Time from sending a streamed completion request to its first token")
+            .register(Telemetry.meters());
+
+    static {
+        cacheMetrics("query_embedding", embeddingCache, QueryEmbeddingCache::getHits, QueryEmbeddingCache::getMisses, QueryEmbeddingCache::size);
+        cacheMetrics("answer", answerCache, SemanticAnswerCache::getHits, SemanticAnswerCache::getMisses, SemanticAnswerCache::size);
+    }
+
+    private static <C> void cacheMetrics(String cache, C instance, ToDoubleFunction<C> hits,
+                                         ToDoubleFunction<C> misses, ToDoubleFunction<C> size) {
+        FunctionCounter.builder("jarvis.cache.requests", instance, hits)
+                .tags("cache", cache, "result", "hit").register(Telemetry.meters());
+        FunctionCounter.builder("jarvis.cache.requests", instance, misses)
+                .tags("cache", cache, "result", "miss").register(Telemetry.meters());
+        Gauge.builder("jarvis.cache.size", instance, size)
+                .tags("cache", cache).register(Telemetry.meters());
+    }
+
     // --- Step 1: Turn User Question into Vector ---
-    public static List<Double> getEmbedding(String text) throws Exception {
-        Map<String, Object> json = new HashMap<>();
-        json.put("input", text);
-        json.put("model", EMBEDDING_MODEL);
+    public static Embedding getEmbedding(String text) throws Exception {
+        // Same model and dimensions as ingestion; base64 is decoded straight into a float[]
+        Map<String, Object> json = EmbeddingService.requestBody(text);
 
         Request request = new Request.Builder()
-                .url("https://api.openai.com/v1/embeddings")
+                .url(OPENAI_BASE_URL + "/embeddings")
                 .post(RequestBody.create(mapper.writeValueAsString(json), MediaType.parse("application/json")))
                 .addHeader("Authorization", "Bearer " + API_KEY)
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) throw new IOException("Embedding failed: " + response.body().string());
-            Map<String, Object> res = mapper.readValue(response.body().string(), Map.class);
-            List<Map<String, Object>> data = (List<Map<String, Object>>) res.get("data");
-            return (List<Double>) data.get(0).get("embedding");
+        return Telemetry.observe("jarvis.embedding.request", () -> embeddingCalls.call(() -> {
+            try (Response response = embeddingClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) throw new IOException("Embedding failed: " + response.body().string());
+                return EmbeddingService.checkDimensions(Embedding.parseResponse(response.body().byteStream(), 1)[0]);
+            }
+        }), "source", "query");
+    }
+
+    /**
+     * Query embedding through the cache; only a miss calls the embeddings API.
+     */
+    public static float[] getQueryEmbedding(String queryText) throws Exception {
+        float[] cached = embeddingCache.get(queryText);
+        if (cached != null) {
+            return cached;
         }
+        float[] vector = getEmbedding(queryText).values();
+        embeddingCache.put(queryText, vector);
+        return vector;
     }
 
-    // --- Step 2: Search Qdrant for Context ---
-    public static String retrieveContext(String queryText) throws Exception {
-        List<Double> queryVector = getEmbedding(queryText);
+    public static QueryEmbeddingCache getEmbeddingCache() {
+        return embeddingCache;
+    }
 
-        // Construct Qdrant Search Body (Using Named Vector "embedding")
-        Map<String, Object> searchBody = new HashMap<>();
-        searchBody.put("vector", new HashMap<String, Object>() {{
-            put("name", "embedding");
-            put("vector", queryVector);
-        }});
-        searchBody.put("limit", 20); // Get top 5 most relevant chunks
-        searchBody.put("with_payload", true);
+    public static SemanticAnswerCache getAnswerCache() {
+        return answerCache;
+    }
 
-        Request request = new Request.Builder()
-                .url(QDRANT_URL + "/collections/" + COLLECTION_NAME + "/points/search")
-                .post(RequestBody.create(mapper.writeValueAsString(searchBody), MediaType.parse("application/json")))
-                .build();
+    /**
+     * Identifies a question for {@link QuestionCoalescer}: the tenant, the normalized text and
+     * the index generation, so duplicates asked across a re-index or by different users don't
+     * share an answer. Called on servlet threads, so it only reads the last known generation.
+     */
+    public static String questionKey(String userQuery, Tenant tenant) {
+        long generation = vectorStore instanceof HnswVectorStore local ? local.lastGeneration() : indexGeneration.current();
+        return generation + ":" + tenant.cacheKey() + ":" + QueryEmbeddingCache.normalize(userQuery);
+    }
 
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) throw new IOException("Search failed: " + response.body().string());
-            
-            Map<String, Object> resMap = mapper.readValue(response.body().string(), Map.class);
-            List<Map<String, Object>> results = (List<Map<String, Object>>) resMap.get("result");
-
-            StringBuilder contextBuilder = new StringBuilder();
-            System.out.println("\n--- Retrieved Context Sources ---");
-            
-            for (Map<String, Object> result : results) {
-                Map<String, Object> payload = (Map<String, Object>) result.get("payload");
-                String text = (String) payload.get("text_content");//actual chunk of note used per file
-                String filename = (String) payload.get("filename");
-                double score = (double) result.get("score");
-                
-                System.out.printf("Score: %.4f | File: %s | Chunk: %s\n", score, filename,text);
-
-                
-                // Append to the big context string
-                if (score>0.2){
-                    contextBuilder.append("Source (").append(filename).append("):\n");
-                    contextBuilder.append(text).append("\n\n");
-                }
-            }
-            return contextBuilder.toString();
+    /** The context block for the prompt plus the distinct files it came from. */
+    public record RetrievedContext(String text, List<String> sources) {}
+
+    /** Receives a streamed answer as it is generated. */
+    public interface StreamListener {
+        /** Called once, before the first token, with the files the context came from. */
+        void onSources(List<String> sources) throws Exception;
+
+        void onToken(String token) throws Exception;
+    }
+
+    // --- Step 2: Search the Vector Store for Context ---
+    /** Context from one tenant's notes only; {@link Tenant#ANY} searches everyone's. */
+    public static String retrieveContext(String queryText, Tenant tenant) throws Exception {
+        return retrieve(queryText, tenant).text();
+    }
+
+    public static RetrievedContext retrieve(String queryText, Tenant tenant) throws Exception {
+        float[] queryVector = getQueryEmbedding(queryText);
+
+        SparseVector sparseQuery = SparseEncoder.encodeQuery(queryText);
+
+        // The most relevant chunks, dense and lexical matches fused; every one of them passes the
+        // dense score threshold. Only the remote store needs the bulkhead
+        List<VectorStore.Hit> results = vectorStore instanceof HnswVectorStore
+                ? vectorStore.search(queryVector, sparseQuery, RETRIEVAL_LIMIT, RETRIEVAL_MIN_SCORE, tenant)
+                : qdrantCalls.call(() -> vectorStore.search(queryVector, sparseQuery, RETRIEVAL_LIMIT, RETRIEVAL_MIN_SCORE, tenant));
+
+        List<ContextPacker.Candidate> candidates = new ArrayList<>(results.size());
+        for (VectorStore.Hit result : results) {
+            // Older points still carry their text in the payload
+            ChunkStore.Chunk chunk = chunkStore.get(result.id());
+            String text = chunk != null ? chunk.text() : result.text(); //actual chunk of note used per file
+            if (text == null) continue; // the chunk was deleted but its point is still in the index
+            String filename = chunk != null ? chunk.filename() : result.filename();
+            int chunkIndex = chunk != null ? chunk.chunkIndex() : result.chunkIndex();
+            candidates.add(new ContextPacker.Candidate(filename, chunkIndex, result.page(), text, candidates.size()));
         }
+
+        // Neighbouring chunks merged, duplicates dropped, cut to the token budget
+        ContextPacker.Packed packed = contextPacker.pack(candidates);
+        contextTokens.record(packed.tokens());
+        log.debug("Context: {} tokens from {} hits, sources {}", packed.tokens(), results.size(), packed.sources());
+        return new RetrievedContext(packed.text(), packed.sources());
     }
 
     // --- Step 3: Ask ChatGPT with Context ---
-    public static String askGPT(String userQuery) throws Exception {
+    public static String askGPT(String userQuery, Tenant tenant) throws Exception {
+        // 0. A close enough paraphrase may already have been answered against the same notes
+        float[] queryVector = getQueryEmbedding(userQuery);
+        long generation = currentGeneration();
+        SemanticAnswerCache.Answer cachedAnswer = answerCache.get(queryVector, tenant.cacheKey(), generation);
+        if (cachedAnswer != null) {
+            return cachedAnswer.text();
+        }
+
         // 1. Get the relevant notes
-        String retrievedContext = retrieveContext(userQuery);
+        RetrievedContext context = retrieve(userQuery, tenant);
+
+        if (context.text().isEmpty()) {
+            return NO_CONTEXT_ANSWER;
+        }
 
-        if (retrievedContext.isEmpty()) {
-            return "I couldn't find any relevant notes in your database.";
+        Request request = buildChatRequest(userQuery, context.text(), false);
+
+        log.debug("Requesting completion from {}", CHAT_MODEL);
+        String resBody = Telemetry.observe("jarvis.chat.completion", () -> chatCalls.call(() -> {
+            try (Response response = chatClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) throw new IOException("Chat failed: " + response.body().string());
+                return response.body().string();
+            }
+        }), "stream", "false");
+
+        Map<String, Object> res = mapper.readValue(resBody, Map.class);
+        List<Map<String, Object>> choices = (List<Map<String, Object>>) res.get("choices");
+        Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
+
+        String answer = (String) message.get("content");
+        answerCache.put(queryVector, tenant.cacheKey(), answer, context.sources(), generation);
+        return answer;
+    }
+
+    /**
+     * Same flow as {@link #askGPT}, but the completion is requested with stream=true and
+     * each token is handed to the listener as soon as it arrives. The sources are sent
+     * before the completion starts.
+     * @return The full answer, once the stream has finished.
+     */
+    public static String streamGPT(String userQuery, StreamListener listener, Tenant tenant) throws Exception {
+        float[] queryVector = getQueryEmbedding(userQuery);
+        long generation = currentGeneration();
+        SemanticAnswerCache.Answer cachedAnswer = answerCache.get(queryVector, tenant.cacheKey(), generation);
+        if (cachedAnswer != null) {
+            listener.onSources(cachedAnswer.sources()); // cites the same files as the first time
+            listener.onToken(cachedAnswer.text());
+            return cachedAnswer.text();
         }
 
+        RetrievedContext context = retrieve(userQuery, tenant);
+        listener.onSources(context.sources());
+
+        if (context.text().isEmpty()) {
+            listener.onToken(NO_CONTEXT_ANSWER);
+            return NO_CONTEXT_ANSWER;
+        }
+
+        Request request = buildChatRequest(userQuery, context.text(), true);
+
+        // The permit is held for the whole stream, not just until the headers arrive
+        String answer = Telemetry.observe("jarvis.chat.completion", () -> chatCalls.call(() -> {
+            long sentAt = System.nanoTime();
+            try (Response response = chatClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) throw new IOException("Chat failed: " + response.body().string());
+
+                // Server-sent events: one "data: {json}" line per delta, ending with "data: [DONE]"
+                StringBuilder text = new StringBuilder();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("data:")) continue;
+                    String data = line.substring(5).trim();
+                    if (data.equals("[DONE]")) break;
+
+                    JsonNode delta = mapper.readTree(data).path("choices").path(0).path("delta");
+                    String token = delta.path("content").asText("");
+                    if (!token.isEmpty()) {
+                        if (text.length() == 0) firstToken.record(System.nanoTime() - sentAt, TimeUnit.NANOSECONDS);
+                        text.append(token);
+                        listener.onToken(token);
+                    }
+                }
+                return text.toString();
+            }
+        }), "stream", "true");
+
+        answerCache.put(queryVector, tenant.cacheKey(), answer, context.sources(), generation);
+        return answer;
+    }
+
+    // The embedded index counts its own writes; Qdrant is polled for changes in the background
+    private static long currentGeneration() {
+        return vectorStore instanceof HnswVectorStore local ? local.getGeneration() : indexGeneration.current();
+    }
+
+    private static Request buildChatRequest(String userQuery, String retrievedContext, boolean stream) throws Exception {
         // 2. Construct the System Prompt (The "Rules")
         String systemPrompt = "You are an expert study assistant. You are tasked with creating a structured study guide with bullet points for the user's provided TOPIC." +
                 "Answer the user's question using ONLY the provided CONTEXT below. " +
@@ -115,23 +322,15 @@ public class ChatComplete {
         Map<String, Object> json = new HashMap<>();
         json.put("model", CHAT_MODEL);
         json.put("messages", Arrays.asList(messageSystem, messageUser));
+        if (stream) {
+            json.put("stream", true);
+        }
 
-        Request request = new Request.Builder()
-                .url("https://api.openai.com/v1/chat/completions")
+        return new Request.Builder()
+                .url(OPENAI_BASE_URL + "/chat/completions")
                 .post(RequestBody.create(mapper.writeValueAsString(json), MediaType.parse("application/json")))
                 .addHeader("Authorization", "Bearer " + API_KEY)
                 .build();
-
-        System.out.println("\n--- Thinking... ---");
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) throw new IOException("Chat failed: " + response.body().string());
-            
-            Map<String, Object> res = mapper.readValue(response.body().string(), Map.class);
-            List<Map<String, Object>> choices = (List<Map<String, Object>>) res.get("choices");
-            Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-            
-            return (String) message.get("content");
-        }
     }
 
     // --- Main Entry Point ---
@@ -145,7 +344,8 @@ public class ChatComplete {
         }
 
         System.out.println("Question: " + question);
-        String answer = askGPT(question);
+        // A local run searches every account's notes
+        String answer = askGPT(question, Tenant.ANY);
         
         System.out.println("\n=== ANSWER ===\n");
         System.out.println(answer);
@@ -1,34 +1,210 @@
 package com.jhsup;
 
+import com.jhsup.ProcessingCode.Settings;
+import com.jhsup.ProcessingCode.Telemetry;
+import com.jhsup.ProcessingCode.Tenant;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @RestController // Tells Spring this class handles Web API requests
 @RequestMapping("/api")
 public class ChatController {
 
+    private static final Logger log = LoggerFactory.getLogger(ChatController.class);
+
+    private static final long ASK_TIMEOUT_MS = Settings.getLong("ASK_TIMEOUT_MS", 180_000);
+    // Sent with a 503 when a question is turned away, so clients and load balancers back off
+    private static final String ASK_RETRY_AFTER_SECONDS = Settings.get("ASK_RETRY_AFTER_SECONDS", "5");
+
+    // Set by the authenticating proxy in front of the app (e.g. oauth2-proxy with Google
+    // sign-in), which must also strip any copy of it sent by the client
+    private static final String AUTH_USER_HEADER = Settings.get("AUTH_USER_HEADER", "X-Forwarded-Email");
+
+    // The RAG chain runs here, so the servlet thread is released as soon as a question is accepted
+    private final TaskExecutor askExecutor;
+
+    private final QuestionCoalescer coalescer = QuestionCoalescer.fromSettings();
+
+    public ChatController(@Qualifier("askExecutor") TaskExecutor askExecutor) {
+        this.askExecutor = askExecutor;
+    }
+
+    /** The RAG chain, run once per distinct question in flight and streamed to every caller asking it. */
+    private static String computeAnswer(String userQuestion, Tenant tenant, ChatComplete.StreamListener listener) throws Exception {
+        return Telemetry.observe("jarvis.answer", () -> ChatComplete.streamGPT(userQuestion, listener, tenant));
+    }
+
+    /**
+     * Whose notes to search: always the signed-in account, taken from the AUTH_USER_HEADER the
+     * proxy sets, never from the request body. The optional "course" field of the request only
+     * narrows the search within that account's notes. A request without a signed-in account is
+     * refused (401) rather than searching everyone's notes.
+     */
+    private static Tenant tenantOf(HttpServletRequest request, Map<String, String> payload) {
+        Tenant tenant = Tenant.of(request.getHeader(AUTH_USER_HEADER), payload.get("course"));
+        if (tenant.owner() == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Sign in to ask about your notes");
+        }
+        return tenant;
+    }
+
     @PostMapping("/ask")
-    public Map<String, String> askQuestion(@RequestBody Map<String, String> payload) {
+    public CompletableFuture<ResponseEntity<Map<String, String>>> askQuestion(@RequestBody Map<String, String> payload,
+                                                                              HttpServletRequest request) {
         String userQuestion = payload.get("question");
-        Map<String, String> response = new HashMap<>();
+        Tenant tenant = tenantOf(request, payload);
+        log.debug("Received question: {}", userQuestion);
 
+        long start = System.nanoTime();
+        CompletableFuture<ResponseEntity<Map<String, String>>> answer;
         try {
-            System.out.println("Received question (Spring Boot): " + userQuestion);
+            // Identical questions in flight share one computation
+            answer = coalescer.join(ChatComplete.questionKey(userQuestion, tenant), null,
+                            listener -> computeAnswer(userQuestion, tenant, listener), askExecutor)
+                    .whenComplete((aiAnswer, failure) -> Telemetry.record("jarvis.ask", start, failure, "stream", "false"))
+                    .thenApply(aiAnswer -> {
+                        Map<String, String> response = new HashMap<>();
+                        response.put("answer", aiAnswer);
+                        response.put("status", "success");
+                        return ResponseEntity.ok(response);
+                    });
+        } catch (RejectedExecutionException rejected) {
+            // Executor saturated or too many waiters: answer right away instead of queueing without bound
+            return CompletableFuture.completedFuture(serviceUnavailable(errorResponse(busy(rejected))));
+        }
+
+        return answer
+                .orTimeout(ASK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .exceptionally(failure -> {
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause() : failure;
+                    if (cause instanceof TimeoutException) {
+                        cause = new TimeoutException("No answer within " + ASK_TIMEOUT_MS + " ms");
+                    }
+                    log.warn("Question failed: {}", cause.toString(), cause);
+                    HttpStatus status = statusOf(cause);
+                    if (status == HttpStatus.SERVICE_UNAVAILABLE) {
+                        return serviceUnavailable(errorResponse(cause));
+                    }
+                    return ResponseEntity.status(status).body(errorResponse(cause));
+                });
+    }
 
-            // Call your existing RAG logic
-            // (Spring can auto-wire this too, but static call is fine for now)
-            String aiAnswer = ChatComplete.askGPT(userQuestion);
+    /**
+     * How a failed question is answered: a rejection anywhere on the way (a full bulkhead
+     * in front of a dependency) is 503 with Retry-After, running out of time is 504, so
+     * clients and load balancers can back off. Other failures keep the 200 error body.
+     */
+    private static HttpStatus statusOf(Throwable cause) {
+        if (cause instanceof RejectedExecutionException) return HttpStatus.SERVICE_UNAVAILABLE;
+        if (cause instanceof TimeoutException) return HttpStatus.GATEWAY_TIMEOUT;
+        return HttpStatus.OK;
+    }
 
-            response.put("answer", aiAnswer);
-            response.put("status", "success");
+    /** The executor's own message names internal classes; say what happened instead. */
+    private static RejectedExecutionException busy(RejectedExecutionException rejected) {
+        return rejected instanceof TaskRejectedException
+                ? new RejectedExecutionException("Too many questions in progress, try again shortly")
+                : rejected;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            response.put("answer", "Error: " + e.getMessage());
-            response.put("status", "error");
-        }
+    private static <T> ResponseEntity<T> serviceUnavailable(T body) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, ASK_RETRY_AFTER_SECONDS)
+                .body(body);
+    }
+
+    private static Map<String, String> errorResponse(Throwable e) {
+        Map<String, String> response = new HashMap<>();
+        response.put("answer", "Error: " + e.getMessage());
+        response.put("status", "error");
         return response;
     }
 
-}
\ No newline at end of file
+    /**
+     * Streaming version of /ask as Server-Sent Events:
+     *   event "sources" - list of files the context came from (sent before generation starts)
+     *   event "token"   - {"token": "..."} for every piece of the answer as it arrives
+     *   event "done"    - {"status": "success"} when the answer is complete
+     *   event "error"   - {"status": "error", "answer": "Error: ...", "code": "503"} if anything fails
+     * A question turned away because the server is saturated gets HTTP 503 with Retry-After
+     * (and the error event), on /ask as well. Once the stream has started the status can't
+     * change, so the error event's "code" carries what /ask would have answered: 503 for a
+     * rejection (retry after ASK_RETRY_AFTER_SECONDS), 504 for a timeout, 500 otherwise.
+     */
+    @PostMapping(value = "/ask/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> askQuestionStream(@RequestBody Map<String, String> payload, HttpServletRequest request) {
+        String userQuestion = payload.get("question");
+        Tenant tenant = tenantOf(request, payload);
+        SseEmitter emitter = new SseEmitter(ASK_TIMEOUT_MS);
+
+        long start = System.nanoTime();
+        try {
+            coalescer.join(ChatComplete.questionKey(userQuestion, tenant), new ChatComplete.StreamListener() {
+                @Override
+                public void onSources(List<String> sources) throws Exception {
+                    emitter.send(SseEmitter.event().name("sources").data(sources, MediaType.APPLICATION_JSON));
+                }
+
+                @Override
+                public void onToken(String token) throws Exception {
+                    // JSON keeps newlines inside the token from breaking the SSE framing
+                    emitter.send(SseEmitter.event().name("token").data(Map.of("token", token), MediaType.APPLICATION_JSON));
+                }
+            }, listener -> computeAnswer(userQuestion, tenant, listener), askExecutor).whenComplete((answer, failure) -> {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+                Telemetry.record("jarvis.ask", start, cause, "stream", "true");
+                if (cause == null) {
+                    try {
+                        emitter.send(SseEmitter.event().name("done").data(Map.of("status", "success"), MediaType.APPLICATION_JSON));
+                        emitter.complete();
+                    } catch (Exception e) {
+                        emitter.completeWithError(e); // the client is already gone
+                    }
+                } else {
+                    log.warn("Streamed question failed: {}", cause.toString(), cause);
+                    sendError(emitter, cause);
+                }
+            });
+        } catch (RejectedExecutionException rejected) {
+            // Executor saturated or too many waiters: fail this stream right away instead of queueing without bound
+            sendError(emitter, busy(rejected));
+            return serviceUnavailable(emitter);
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    private static void sendError(SseEmitter emitter, Throwable e) {
+        HttpStatus status = statusOf(e);
+        String code = Integer.toString((status == HttpStatus.OK ? HttpStatus.INTERNAL_SERVER_ERROR : status).value());
+        try {
+            emitter.send(SseEmitter.event().name("error")
+                    .data(Map.of("status", "error", "answer", "Error: " + e.getMessage(), "code", code), MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (Exception sendFailed) {
+            emitter.completeWithError(sendFailed); // the client is already gone
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.jhsup;
+
+import com.jhsup.ProcessingCode.Settings;
+import com.jhsup.ProcessingCode.SparseEncoder;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+
+import java.util.*;
+
+/**
+ * Assembles the prompt's context block from ranked retrieval hits, within a token budget:
+ *   1. Hits from the same file with consecutive chunk indexes become one passage; the text the
+ *      chunker repeats at each boundary (the overlap) is kept only once.
+ *   2. Passages that are near-duplicates of a better-ranked one are dropped (the same slide in
+ *      two versions of a deck, a paragraph quoted in two handouts).
+ *   3. Optionally, MMR reorders the passages so each next one is relevant but not redundant
+ *      with what was already picked.
+ *   4. Passages are added in that order while they fit the budget, counted with the chat
+ *      model's tokenizer. If even the first one doesn't fit, it is cut at the budget.
+ *
+ * Settings (env / -D):
+ *   CONTEXT_TOKEN_BUDGET         defaults to 2000
+ *   CONTEXT_DUPLICATE_THRESHOLD  share of word trigrams two passages have in common to count
+ *                                as duplicates, defaults to 0.8
+ *   CONTEXT_MMR_LAMBDA           relevance weight for MMR in [0, 1]; 1 (default) keeps the
+ *                                retrieval order
+ */
+public class ContextPacker {
+
+    // Overlaps shorter than this are more likely a coincidence than repeated text
+    private static final int MIN_OVERLAP_CHARS = 16;
+    private static final int MAX_OVERLAP_CHARS = 1000;
+
+    /** One retrieval hit; lower rank = more relevant. The page is 1-based, 0 if unknown. */
+    public record Candidate(String filename, int chunkIndex, int page, String text, int rank) {}
+
+    /** The context block, the distinct files it came from and its size in tokens. */
+    public record Packed(String text, List<String> sources, int tokens) {}
+
+    private static final class Passage {
+        final String filename;
+        int lastChunk;
+        final int page;
+        final StringBuilder text;
+        int rank;
+        Set<Long> shingles;
+        Set<String> terms;
+
+        Passage(Candidate candidate) {
+            this.filename = candidate.filename();
+            this.lastChunk = candidate.chunkIndex();
+            this.page = candidate.page();
+            this.text = new StringBuilder(candidate.text());
+            this.rank = candidate.rank();
+        }
+    }
+
+    private final Encoding encoding;
+    private final int tokenBudget;
+    private final double duplicateThreshold;
+    private final double mmrLambda;
+
+    public ContextPacker(Encoding encoding, int tokenBudget, double duplicateThreshold, double mmrLambda) {
+        this.encoding = encoding;
+        this.tokenBudget = tokenBudget;
+        this.duplicateThreshold = duplicateThreshold;
+        this.mmrLambda = mmrLambda;
+    }
+
+    /**
+     * @param chatModel Selects the tokenizer; unknown models count with o200k_base.
+     */
+    public static ContextPacker fromSettings(String chatModel) {
+        Encoding encoding = Encodings.newLazyEncodingRegistry().getEncodingForModel(chatModel)
+                .orElseGet(() -> Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.O200K_BASE));
+        return new ContextPacker(
+                encoding,
+                Settings.getInt("CONTEXT_TOKEN_BUDGET", 2000),
+                Settings.getDouble("CONTEXT_DUPLICATE_THRESHOLD", 0.8),
+                Settings.getDouble("CONTEXT_MMR_LAMBDA", 1.0));
+    }
+
+    public int countTokens(String text) {
+        return encoding.countTokensOrdinary(text);
+    }
+
+    public Packed pack(List<Candidate> candidates) {
+        List<Passage> passages = merge(candidates);
+        passages = dropDuplicates(passages);
+        if (mmrLambda < 1.0) {
+            passages = diversify(passages);
+        }
+
+        // --- Fill the budget ---
+        StringBuilder context = new StringBuilder();
+        Set<String> sources = new LinkedHashSet<>();
+        int tokens = 0;
+        for (Passage passage : passages) {
+            String header = passage.page > 0 ? passage.filename + ", page " + passage.page : passage.filename;
+            String block = "Source (" + header + "):\n" + passage.text + "\n\n";
+            int blockTokens = encoding.countTokensOrdinary(block);
+            if (tokens + blockTokens > tokenBudget) {
+                if (!sources.isEmpty()) continue; // a shorter passage further down may still fit
+                EncodingResult truncated = encoding.encodeOrdinary(block, tokenBudget);
+                block = encoding.decode(truncated.getTokens()) + "\n\n";
+                blockTokens = truncated.getTokens().size();
+            }
+            context.append(block);
+            sources.add(passage.filename);
+            tokens += blockTokens;
+        }
+        return new Packed(context.toString(), new ArrayList<>(sources), tokens);
+    }
+
+    // ------------------- 1. Merge neighbours -------------------
+
+    /** Joins consecutive chunks of a file; the result is ordered by each passage's best rank. */
+    private static List<Passage> merge(List<Candidate> candidates) {
+        Map<String, List<Candidate>> byFile = new LinkedHashMap<>();
+        for (Candidate candidate : candidates) {
+            byFile.computeIfAbsent(candidate.filename(), f -> new ArrayList<>()).add(candidate);
+        }
+
+        List<Passage> passages = new ArrayList<>();
+        for (List<Candidate> fileCandidates : byFile.values()) {
+            fileCandidates.sort(Comparator.comparingInt(Candidate::chunkIndex));
+            Passage current = null;
+            for (Candidate candidate : fileCandidates) {
+                if (current != null && candidate.chunkIndex() == current.lastChunk) {
+                    continue; // the same chunk twice
+                }
+                if (current != null && candidate.chunkIndex() == current.lastChunk + 1) {
+                    appendWithoutOverlap(current.text, candidate.text());
+                    current.lastChunk = candidate.chunkIndex();
+                    current.rank = Math.min(current.rank, candidate.rank());
+                } else {
+                    current = new Passage(candidate);
+                    passages.add(current);
+                }
+            }
+        }
+        passages.sort(Comparator.comparingInt(p -> p.rank));
+        return passages;
+    }
+
+    /** Appends next, skipping its longest prefix that repeats the end of the text so far. */
+    static void appendWithoutOverlap(StringBuilder text, String next) {
+        int max = Math.min(MAX_OVERLAP_CHARS, Math.min(text.length(), next.length()));
+        for (int length = max; length >= MIN_OVERLAP_CHARS; length--) {
+            if (regionEquals(text, text.length() - length, next, length)) {
+                text.append(next, length, next.length());
+                return;
+            }
+        }
+        text.append('\n').append(next);
+    }
+
+    private static boolean regionEquals(StringBuilder text, int offset, String next, int length) {
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(offset + i) != next.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // ------------------- 2. Near-duplicates -------------------
+
+    private List<Passage> dropDuplicates(List<Passage> passages) {
+        List<Passage> kept = new ArrayList<>();
+        for (Passage passage : passages) {
+            passage.shingles = shingles(passage.text.toString());
+            boolean duplicate = false;
+            for (Passage better : kept) {
+                if (containment(passage.shingles, better.shingles) >= duplicateThreshold) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) kept.add(passage);
+        }
+        return kept;
+    }
+
+    /** Hashes of the word trigrams, case and punctuation ignored. */
+    private static Set<Long> shingles(String text) {
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        Set<Long> shingles = new HashSet<>();
+        long a = 0, b = 0;
+        int seen = 0;
+        for (String word : words) {
+            if (word.isEmpty()) continue;
+            long c = word.hashCode();
+            if (++seen >= 3) {
+                shingles.add((a * 31 + b) * 31 + c);
+            }
+            a = b;
+            b = c;
+        }
+        return shingles;
+    }
+
+    /** Share of the smaller set found in the other, so a passage inside a longer one counts too. */
+    private static double containment(Set<Long> x, Set<Long> y) {
+        if (x.isEmpty() || y.isEmpty()) return 0;
+        Set<Long> small = x.size() <= y.size() ? x : y;
+        Set<Long> large = small == x ? y : x;
+        int shared = 0;
+        for (Long shingle : small) {
+            if (large.contains(shingle)) shared++;
+        }
+        return (double) shared / small.size();
+    }
+
+    // ------------------- 3. MMR -------------------
+
+    /**
+     * Greedy maximal marginal relevance: relevance comes from the retrieval rank, redundancy
+     * is the term overlap (Jaccard) with the most similar passage already picked.
+     */
+    private List<Passage> diversify(List<Passage> passages) {
+        for (Passage passage : passages) {
+            passage.terms = new HashSet<>(SparseEncoder.terms(passage.text.toString()));
+        }
+        List<Passage> remaining = new ArrayList<>(passages);
+        List<Passage> picked = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            Passage best = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (Passage candidate : remaining) {
+                double relevance = 1.0 / (1 + candidate.rank);
+                double redundancy = 0;
+                for (Passage chosen : picked) {
+                    redundancy = Math.max(redundancy, jaccard(candidate.terms, chosen.terms));
+                }
+                double score = mmrLambda * relevance - (1 - mmrLambda) * redundancy;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = candidate;
+                }
+            }
+            remaining.remove(best);
+            picked.add(best);
+        }
+        return picked;
+    }
+
+    private static double jaccard(Set<String> x, Set<String> y) {
+        if (x.isEmpty() && y.isEmpty()) return 0;
+        int shared = 0;
+        for (String term : x) {
+            if (y.contains(term)) shared++;
+        }
+        return (double) shared / (x.size() + y.size() - shared);
+    }
+}
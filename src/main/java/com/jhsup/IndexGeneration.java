@@ -0,0 +1,74 @@
+package com.jhsup;
+
+import com.jhsup.ProcessingCode.IndexVersion;
+import okhttp3.*;
+import com.fasterxml.jackson.databind.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks whether a Qdrant collection has changed, as a single number. The generation moves
+ * when the {@link IndexVersion} written by ingestion moves (every run that wrote or deleted
+ * points, including in-place overwrites that leave the counts alone) or when the collection's
+ * point count does (writes by other tools). Indexed-vector and segment counts are left out on
+ * purpose: Qdrant's optimizer changes them when it merges segments or builds the index, with
+ * no data changed, and every cached answer would be thrown away after each run. A daemon thread
+ * re-reads it once per poll interval, so {@link #current()} never waits on Qdrant and can be
+ * called on every request, including on servlet threads.
+ */
+public class IndexGeneration {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexGeneration.class);
+
+    private final OkHttpClient client;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String collectionUrl;
+
+    private final AtomicLong generation = new AtomicLong();
+    private int lastFingerprint = 0; // only touched by the poller thread
+
+    public IndexGeneration(OkHttpClient client, String collectionUrl, long pollMillis) {
+        this.client = client;
+        this.collectionUrl = collectionUrl;
+        ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "index-generation-poll");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The generation as of the last poll. If Qdrant can't be reached, the last known value is kept.
+     */
+    public long current() {
+        return generation.get();
+    }
+
+    private void poll() {
+        Request request = new Request.Builder().url(collectionUrl).get().build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                JsonNode result = mapper.readTree(response.body().byteStream()).path("result");
+                int fingerprint = Objects.hash(IndexVersion.read(), result.path("points_count").asLong());
+                if (fingerprint != lastFingerprint) {
+                    lastFingerprint = fingerprint;
+                    generation.incrementAndGet();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Could not read collection info: {}", e.getMessage());
+        }
+    }
+
+    /** Forces a new generation, e.g. after this process wrote to the collection. */
+    public void bump() {
+        generation.incrementAndGet();
+    }
+}
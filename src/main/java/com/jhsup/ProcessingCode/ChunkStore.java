@@ -0,0 +1,273 @@
+package com.jhsup.ProcessingCode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only store of chunk text and metadata, keyed by point ID, so the vector store only
+ * has to keep vectors and a minimal payload. Records are appended to segment files
+ * (chunks-00000.dat, ...) and read back through read-only memory mappings: a lookup copies
+ * the record's bytes out of the mapped segment (no read call) and decodes them once into the
+ * String, which takes UTF-8's ASCII fast path for most notes.
+ *
+ * Writing a point again appends a new record that supersedes the old one; deleting appends a
+ * tombstone. The ID -> location index is rebuilt by scanning the segments on open and is
+ * caught up at most once a second afterwards, so a server picks up what a separate ingestion
+ * process appended. Only one process may write at a time (guarded by a lock file).
+ *
+ * Reads take no lock: the index is a concurrent map and a segment's mapping is never modified
+ * (a grown segment is mapped again and the new mapping replaces the old one). The once-a-second
+ * catch-up is done by whichever reader is due first while the others carry on; a lookup for an
+ * ID that isn't indexed yet doesn't trigger one of its own.
+ *
+ * Record layout (big endian):
+ *   int length of the rest, long id, int chunk index, int filename bytes,
+ *   int text bytes (-1 for a tombstone), filename (UTF-8), text (UTF-8)
+ *
+ * Settings (env / -D):
+ *   CHUNK_STORE_DIR             defaults to ./chunk_store
+ *   CHUNK_STORE_SEGMENT_BYTES   a new segment is started past this size, defaults to 256 MB
+ */
+public class ChunkStore implements Closeable {
+
+    private static final int RECORD_HEADER_BYTES = 4 + 8 + 4 + 4 + 4;
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    // One instance per directory, so the pipeline and the chat path in one JVM share an index
+    private static final Map<Path, ChunkStore> openStores = new HashMap<>();
+
+    public record Chunk(long id, String filename, int chunkIndex, String text) {}
+
+    private final Path dir;
+    private final long segmentBytes;
+
+    // --- Read side ---
+    private final Map<Integer, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    private final Map<Long, Long> locations = new ConcurrentHashMap<>(); // id -> segment << 40 | offset
+    private final AtomicLong lastRefresh = new AtomicLong();
+
+    // --- Scan position, guarded by this ---
+    private int scannedSegment = 0;
+    private long scannedOffset = 0;
+
+    // --- Write side, opened on the first write ---
+    private FileChannel lockChannel;
+    private FileLock writeLock;
+    private FileChannel appendChannel;
+    private int appendSegment = -1;
+
+    public static ChunkStore open() {
+        Path dir = Paths.get(Settings.get("CHUNK_STORE_DIR", "./chunk_store")).toAbsolutePath().normalize();
+        synchronized (openStores) {
+            ChunkStore store = openStores.get(dir);
+            if (store == null) {
+                try {
+                    // Segments are mapped as a whole, so they must stay under 2 GB
+                    long segmentBytes = Math.min(Settings.getLong("CHUNK_STORE_SEGMENT_BYTES", 256L * 1024 * 1024), Integer.MAX_VALUE);
+                    store = new ChunkStore(dir, segmentBytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not open chunk store " + dir, e);
+                }
+                openStores.put(dir, store);
+            }
+            return store;
+        }
+    }
+
+    public ChunkStore(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        refresh();
+    }
+
+    // ------------------- Reads -------------------
+
+    /**
+     * @return The latest record for this point, or null if it was never written or was deleted.
+     */
+    public Chunk get(long id) throws IOException {
+        long now = System.currentTimeMillis();
+        long last = lastRefresh.get();
+        if (now - last > REFRESH_INTERVAL_MS && lastRefresh.compareAndSet(last, now)) {
+            refresh(); // pick up records appended by another process
+        }
+        Long location = locations.get(id);
+        if (location == null) return null;
+
+        int segmentNumber = (int) (location >>> 40);
+        int offset = (int) (location & 0xFF_FFFF_FFFFL);
+        ByteBuffer segment = segmentCovering(segmentNumber, offset + RECORD_HEADER_BYTES);
+        segment = segmentCovering(segmentNumber, offset + 4L + segment.getInt(offset));
+        int chunkIndex = segment.getInt(offset + 12);
+        int filenameBytes = segment.getInt(offset + 16);
+        int textBytes = segment.getInt(offset + 20);
+        int start = offset + RECORD_HEADER_BYTES;
+        byte[] bytes = new byte[filenameBytes + textBytes];
+        segment.get(start, bytes); // absolute: the shared mapping's position is never touched
+        String filename = new String(bytes, 0, filenameBytes, StandardCharsets.UTF_8);
+        String text = new String(bytes, filenameBytes, textBytes, StandardCharsets.UTF_8);
+        return new Chunk(id, filename, chunkIndex, text);
+    }
+
+    /**
+     * Indexes every complete record past the last scanned position. A torn record at the end
+     * of the last segment (a crashed writer) is left out.
+     */
+    private synchronized void refresh() throws IOException {
+        while (true) {
+            Path path = segmentPath(scannedSegment);
+            if (!Files.exists(path)) return;
+
+            long size = Files.size(path);
+            if (scannedOffset < size) {
+                MappedByteBuffer segment = segmentCovering(scannedSegment, size);
+                long offset = scannedOffset;
+                while (offset + 4 <= size) {
+                    int length = segment.getInt((int) offset);
+                    if (length < RECORD_HEADER_BYTES - 4 || offset + 4 + length > size) break; // incomplete
+                    long id = segment.getLong((int) offset + 4);
+                    int textBytes = segment.getInt((int) offset + 20);
+                    if (textBytes < 0) {
+                        locations.remove(id);
+                    } else {
+                        locations.put(id, ((long) scannedSegment << 40) | offset);
+                    }
+                    offset += 4 + length;
+                }
+                scannedOffset = offset;
+            }
+
+            if (!Files.exists(segmentPath(scannedSegment + 1))) return;
+            scannedSegment++;
+            scannedOffset = 0;
+        }
+    }
+
+    /**
+     * The mapping of a segment, remapped first if the segment has grown past {@code end}.
+     * Concurrent remaps of the same segment both succeed; the larger mapping is kept.
+     */
+    private MappedByteBuffer segmentCovering(int segment, long end) throws IOException {
+        MappedByteBuffer buffer = segments.get(segment);
+        if (buffer == null || buffer.capacity() < end) {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            buffer = segments.merge(segment, buffer, (old, mapped) -> old.capacity() >= mapped.capacity() ? old : mapped);
+        }
+        return buffer;
+    }
+
+    // ------------------- Writes -------------------
+
+    public synchronized void put(long id, String filename, int chunkIndex, String text) throws IOException {
+        append(id, chunkIndex, filename.getBytes(StandardCharsets.UTF_8), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Appends a tombstone for each ID that is currently stored. */
+    public synchronized void delete(Collection<Long> ids) throws IOException {
+        refresh();
+        for (Long id : ids) {
+            if (locations.containsKey(id)) {
+                append(id, -1, new byte[0], null);
+            }
+        }
+    }
+
+    /** Forces appended records to disk. */
+    public synchronized void flush() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.force(false);
+        }
+    }
+
+    private void append(long id, int chunkIndex, byte[] filename, byte[] text) throws IOException {
+        openForAppend();
+        int textBytes = text == null ? -1 : text.length;
+        int length = RECORD_HEADER_BYTES - 4 + filename.length + Math.max(textBytes, 0);
+
+        long offset = appendChannel.size();
+        if (offset > 0 && offset + 4 + length > segmentBytes) {
+            // Start a new segment; records never straddle two
+            appendChannel.force(false);
+            appendChannel.close();
+            appendSegment++;
+            appendChannel = FileChannel.open(segmentPath(appendSegment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            offset = 0;
+            scannedSegment = appendSegment;
+            scannedOffset = 0;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length).putLong(id).putInt(chunkIndex).putInt(filename.length).putInt(textBytes);
+        record.put(filename);
+        if (text != null) record.put(text);
+        record.flip();
+        while (record.hasRemaining()) {
+            appendChannel.write(record, offset + record.position());
+        }
+
+        // This process is the only writer, so it can index its own record without rescanning;
+        // the segment is remapped lazily by the next read that needs it
+        if (text == null) {
+            locations.remove(id);
+        } else {
+            locations.put(id, ((long) appendSegment << 40) | offset);
+        }
+        scannedOffset = offset + 4 + length;
+    }
+
+    private void openForAppend() throws IOException {
+        if (appendChannel != null) return;
+
+        lockChannel = FileChannel.open(dir.resolve("write.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            writeLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            writeLock = null; // held by another instance in this JVM
+        }
+        if (writeLock == null) {
+            lockChannel.close();
+            lockChannel = null;
+            throw new IOException("Chunk store " + dir + " is being written by another process");
+        }
+
+        refresh();
+        appendSegment = scannedSegment;
+        appendChannel = FileChannel.open(segmentPath(appendSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (appendChannel.size() > scannedOffset) {
+            appendChannel.truncate(scannedOffset); // drop a torn record left by a crash
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(String.format("chunks-%05d.dat", segment));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.force(false);
+            appendChannel.close();
+            appendChannel = null;
+        }
+        if (writeLock != null) {
+            writeLock.release();
+            lockChannel.close();
+            writeLock = null;
+        }
+    }
+}
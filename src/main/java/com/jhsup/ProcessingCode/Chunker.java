@@ -0,0 +1,277 @@
+package com.jhsup.ProcessingCode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits extracted text into chunks of about CHUNK_TARGET_TOKENS, cutting at the strongest
+ * structural boundary available rather than at a fixed character count. From strongest to
+ * weakest: a page or slide break (form feed, as the extractors emit it), the start of a
+ * heading, a paragraph break, a line break, the end of a sentence, a space.
+ *
+ * A chunk ends at the strongest boundary between the minimum and the target size (the
+ * furthest one if several are equally strong), so short slides are grouped instead of
+ * becoming one tiny chunk each, and a page break is preferred over filling up the chunk.
+ * Chunks don't overlap; neighbouring hits are stitched back together when the context is
+ * packed.
+ *
+ * Chunks are produced lazily while iterating. Over a {@link CharSequence} each chunk is a
+ * read-only view of the source (no copy); over a {@link Reader} only the current window is
+ * buffered, so a document never has to sit in memory as a whole.
+ *
+ * Token counts are estimated at 4 characters per token, like the embedding batches.
+ *
+ * Settings (env / -D):
+ *   CHUNK_TARGET_TOKENS   defaults to 256
+ *   CHUNK_MIN_TOKENS      defaults to half the target
+ */
+public class Chunker {
+
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MAX_HEADING_CHARS = 80;
+
+    // Boundary strengths
+    private static final int NONE = 0;
+    private static final int SPACE = 1;
+    private static final int SENTENCE = 2;
+    private static final int LINE = 3;
+    private static final int PARAGRAPH = 4;
+    private static final int HEADING = 5;
+    private static final int PAGE = 6;
+
+    /**
+     * One chunk of a document.
+     * @param page Zero-based page (or slide) the chunk starts on, counted by form feeds.
+     * @param text A view of the source for CharSequence input; call toString() to keep it.
+     */
+    public record Chunk(int index, int start, int end, int page, CharSequence text) {}
+
+    private final int minChars;
+    private final int maxChars;
+
+    public Chunker(int targetTokens, int minTokens) {
+        if (minTokens <= 0 || minTokens > targetTokens) {
+            throw new IllegalArgumentException("Need 0 < min tokens <= target tokens, got " + minTokens + " and " + targetTokens);
+        }
+        this.maxChars = targetTokens * CHARS_PER_TOKEN;
+        this.minChars = minTokens * CHARS_PER_TOKEN;
+    }
+
+    public static Chunker fromSettings() {
+        int target = Settings.getInt("CHUNK_TARGET_TOKENS", 256);
+        return new Chunker(target, Settings.getInt("CHUNK_MIN_TOKENS", Math.max(1, target / 2)));
+    }
+
+    public Iterable<Chunk> chunks(CharSequence text) {
+        return () -> new ChunkIterator(new SequenceWindow(text));
+    }
+
+    /** The reader is consumed while iterating; it is not closed. */
+    public Iterable<Chunk> chunks(Reader reader) {
+        return () -> new ChunkIterator(new ReaderWindow(reader));
+    }
+
+    // ------------------- Splitting -------------------
+
+    private final class ChunkIterator implements Iterator<Chunk> {
+        private final Window window;
+        private int position = 0;
+        private int page = 0;
+        private int index = 0;
+        private Chunk next;
+
+        ChunkIterator(Window window) {
+            this.window = window;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) next = advance();
+            return next != null;
+        }
+
+        @Override
+        public Chunk next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Chunk chunk = next;
+            next = null;
+            return chunk;
+        }
+
+        private Chunk advance() {
+            // Skip separators between chunks, counting page breaks
+            while (window.has(position) && Character.isWhitespace(window.charAt(position))) {
+                if (window.charAt(position) == '\f') page++;
+                position++;
+            }
+            if (!window.has(position)) return null;
+
+            int start = position;
+            int startPage = page;
+            int limit = start + maxChars;
+
+            // The strongest boundary in (start + minChars, limit]; later ones win ties
+            int cut = -1;
+            int cutStrength = NONE;
+            int end = start;
+            while (end < limit && window.has(end)) {
+                end++;
+                if (end - start < minChars || !window.has(end)) continue;
+                int strength = boundaryAt(end);
+                if (strength != NONE && strength >= cutStrength) {
+                    cut = end;
+                    cutStrength = strength;
+                }
+            }
+            if (!window.has(end)) {
+                cut = end; // the rest of the document fits
+            } else if (cut < 0) {
+                cut = end; // one run without any whitespace: hard cut
+                if (Character.isHighSurrogate(window.charAt(cut - 1))) cut--;
+            }
+
+            // Pages passed inside the chunk
+            for (int i = start; i < cut; i++) {
+                if (window.charAt(i) == '\f') page++;
+            }
+            position = cut;
+
+            int textEnd = cut;
+            while (textEnd > start && Character.isWhitespace(window.charAt(textEnd - 1))) {
+                textEnd--;
+            }
+            Chunk chunk = new Chunk(index++, start, textEnd, startPage, window.text(start, textEnd));
+            window.release(cut);
+            return chunk;
+        }
+
+        /** How good a place it is to start the next chunk at {@code p}. */
+        private int boundaryAt(int p) {
+            char before = window.charAt(p - 1);
+            if (!Character.isWhitespace(before)) return NONE;
+            if (before == '\f') return PAGE;
+            if (Character.isWhitespace(window.charAt(p))) return NONE; // cut after the whole run
+
+            if (before == '\n' || before == '\r') {
+                if (isHeadingLine(p)) return HEADING;
+                // A blank line (possibly with spaces on it) before this one
+                // (the chunk starts with a non-space, so these scans stop inside it)
+                int i = p - 2;
+                while (window.charAt(i) == ' ' || window.charAt(i) == '\t' || window.charAt(i) == '\r') {
+                    i--;
+                }
+                return window.charAt(i) == '\n' ? PARAGRAPH : LINE;
+            }
+
+            int i = p - 1;
+            while (window.charAt(i) == ' ' || window.charAt(i) == '\t') {
+                i--;
+            }
+            char last = window.charAt(i);
+            if (last == '.' || last == '?' || last == '!' || last == ':' || last == ';') return SENTENCE;
+            return SPACE;
+        }
+
+        /**
+         * A short line that starts with a capital, digit or '#' and doesn't end like a sentence,
+         * e.g. "2.3 Reductions" or "Lecture 7: NP-Completeness".
+         */
+        private boolean isHeadingLine(int p) {
+            char first = window.charAt(p);
+            if (!Character.isUpperCase(first) && !Character.isDigit(first) && first != '#') return false;
+            int i = p;
+            while (window.has(i) && window.charAt(i) != '\n' && window.charAt(i) != '\f') {
+                if (i - p > MAX_HEADING_CHARS) return false;
+                i++;
+            }
+            if (!window.has(i)) return false; // a heading needs a line after it
+            int last = i - 1;
+            while (last > p && Character.isWhitespace(window.charAt(last))) last--;
+            char end = window.charAt(last);
+            return end != '.' && end != ',' && end != ';' && end != '?' && end != '!';
+        }
+    }
+
+    // ------------------- Input windows -------------------
+
+    /** Random access to the part of the input between the last release and the read-ahead. */
+    private interface Window {
+        /** Whether the input extends to position {@code p}; may read ahead to find out. */
+        boolean has(int p);
+
+        char charAt(int p);
+
+        CharSequence text(int start, int end);
+
+        /** Positions before {@code p} are no longer needed. */
+        void release(int p);
+    }
+
+    private static final class SequenceWindow implements Window {
+        private final CharSequence text;
+
+        SequenceWindow(CharSequence text) {
+            this.text = text;
+        }
+
+        public boolean has(int p) {
+            return p < text.length();
+        }
+
+        public char charAt(int p) {
+            return text.charAt(p);
+        }
+
+        public CharSequence text(int start, int end) {
+            return CharBuffer.wrap(text, start, end).asReadOnlyBuffer();
+        }
+
+        public void release(int p) {
+        }
+    }
+
+    private static final class ReaderWindow implements Window {
+        private final Reader reader;
+        private final StringBuilder buffer = new StringBuilder();
+        private final char[] readBuffer = new char[8192];
+        private int base = 0; // position of buffer[0]
+        private boolean eof = false;
+
+        ReaderWindow(Reader reader) {
+            this.reader = reader;
+        }
+
+        public boolean has(int p) {
+            while (p - base >= buffer.length() && !eof) {
+                try {
+                    int n = reader.read(readBuffer);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        buffer.append(readBuffer, 0, n);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return p - base < buffer.length();
+        }
+
+        public char charAt(int p) {
+            return buffer.charAt(p - base);
+        }
+
+        public CharSequence text(int start, int end) {
+            return buffer.substring(start - base, end - base); // the buffer is reused, so copy
+        }
+
+        public void release(int p) {
+            buffer.delete(0, p - base);
+            base = p;
+        }
+    }
+}
@@ -1,54 +1,72 @@
 package com.jhsup.ProcessingCode;
 
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
 import org.apache.poi.xslf.usermodel.XMLSlideShow;
 import org.apache.poi.xslf.usermodel.XSLFSlide;
-import java.util.concurrent.TimeUnit;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
-import okhttp3.*;
-import com.fasterxml.jackson.databind.*;
 
 public class DocumentProcessor {
 
     // --- Configuration ---
-    // NOTE: text-embedding-3-small default size is 1536.
-    private static final int VECTOR_SIZE = 1536; 
-    private static final String COLLECTION_NAME = "class_notes";
+    // The vector size follows EMBEDDING_DIMENSIONS, see EmbeddingService
+    private static final int VECTOR_SIZE = EmbeddingService.DIMENSIONS;
+    private static final String COLLECTION_NAME = Settings.get("COLLECTION_NAME", "class_notes");
     private static final String DISTANCE_METRIC = "Cosine";
-    private static final String EMBEDDING_MODEL = "text-embedding-3-small";
-    
-    // Globally unique ID generator starting from a high number to avoid clashes with existing points
-    private static final AtomicLong ID_COUNTER = new AtomicLong(System.currentTimeMillis() * 100);
-    
-    // Fetches the API key from environment variables
-    private static final String API_KEY = System.getenv("OPENAI_KEY");
+    private static final Chunker CHUNKER = Chunker.fromSettings();
 
     // ------------------- Text Extraction -------------------
     public static String extractTextPdf(String filePath) throws Exception {
-        // Use try-with-resources to ensure PDDocument is closed
-        try (PDDocument document = PDDocument.load(new File(filePath))) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
+        // Use try-with-resources to ensure the document is closed
+        try (PdfPageReader reader = new PdfPageReader(new File(filePath))) {
+            StringWriter text = new StringWriter();
+            reader.transferTo(text);
+            return text.toString();
         }
     }
 
+    public static String extractTextPdf(InputStream in) throws Exception {
+        Path spill = spillPdf(in);
+        try {
+            return extractTextPdf(spill.toString());
+        } finally {
+            Files.deleteIfExists(spill);
+        }
+    }
+
+    /** PDFBox needs random access, so a streamed PDF is spilled to a temp file first. */
+    private static Path spillPdf(InputStream in) throws IOException {
+        Path spill = Files.createTempFile("jarvis-ingest-", ".pdf");
+        Files.copy(in, spill, StandardCopyOption.REPLACE_EXISTING);
+        return spill;
+    }
+
     public static String extractTextDocx(String filePath) throws Exception {
-        try (FileInputStream fis = new FileInputStream(filePath);
-             XWPFDocument doc = new XWPFDocument(fis);
+        try (FileInputStream fis = new FileInputStream(filePath)) {
+            return extractTextDocx(fis);
+        }
+    }
+
+    public static String extractTextDocx(InputStream in) throws Exception {
+        try (XWPFDocument doc = new XWPFDocument(in);
              XWPFWordExtractor extractor = new XWPFWordExtractor(doc)) {
             return extractor.getText();
         }
     }
 
     public static String extractTextPptx(String filePath) throws Exception {
-        try (FileInputStream fis = new FileInputStream(filePath);
-            XMLSlideShow ppt = new XMLSlideShow(fis)) {
+        try (FileInputStream fis = new FileInputStream(filePath)) {
+            return extractTextPptx(fis);
+        }
+    }
+
+    public static String extractTextPptx(InputStream in) throws Exception {
+        try (XMLSlideShow ppt = new XMLSlideShow(in)) {
             
             StringBuilder sb = new StringBuilder();
             
@@ -73,146 +91,111 @@ public class DocumentProcessor {
                         }
                     }
                 });
+                sb.append('\f'); // slide break, see Chunker
             }
             return sb.toString();
         }
     }
 
     // ------------------- Text Splitting -------------------
-    // (This method remains unchanged and is correct)
-    public static List<String> splitText(String text, int chunkSize, int overlap) {
-        List<String> chunks = new ArrayList<>();
-        int start = 0;
-        while (start < text.length()) {
-            int end = Math.min(start + chunkSize, text.length());
-            chunks.add(text.substring(start, end));
-            start += (chunkSize - overlap);
-        }
-        return chunks;
+    /**
+     * The chunks of one document, each with the page or slide it starts on
+     * (1-based, 0 for formats without pages).
+     */
+    public record ChunkedText(List<String> chunks, List<Integer> pages) {}
+
+    /**
+     * Splits extracted text at structural boundaries (pages, slides, headings, paragraphs,
+     * sentences) into chunks of about CHUNK_TARGET_TOKENS, see {@link Chunker}.
+     * @param filename Selects whether form feeds number pages (PDF) or slides (PPTX).
+     */
+    public static ChunkedText splitText(String filename, String text) {
+        String name = filename.toLowerCase();
+        return collect(CHUNKER.chunks(text), name.endsWith(".pdf") || name.endsWith(".pptx"));
     }
 
-    // ------------------- OpenAI Embeddings -------------------
-    public static List<Double> getEmbedding(String text) throws Exception {
-        if (API_KEY == null || API_KEY.trim().isEmpty()) {
-            throw new IllegalStateException("OPENAI_KEY environment variable is not set.");
+    /**
+     * Strips and chunks a PDF a window of pages at a time ({@link PdfPageReader}), so the parsed
+     * pages and the stripped text are never held for the whole document at once. The chunks
+     * themselves are collected, though: the pipeline embeds and writes a document as one unit
+     * (one manifest entry, stale chunks deleted once it is written), so it still holds the
+     * document's chunk texts and then their embeddings. That grows with the extracted text,
+     * not with the size of the PDF and its page resources.
+     */
+    public static ChunkedText chunkPdf(File file) throws IOException {
+        try (PdfPageReader reader = new PdfPageReader(file)) {
+            return collect(CHUNKER.chunks(reader), true);
         }
+    }
 
-        OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS) // Wait up to 60s to connect
-            .readTimeout(30, TimeUnit.SECONDS)    // Wait up to 60s for data
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
-        ObjectMapper mapper = new ObjectMapper();
-
-        Map<String, Object> json = new HashMap<>();
-        json.put("input", text);
-        json.put("model", EMBEDDING_MODEL);
-
-        RequestBody body = RequestBody.create(
-                mapper.writeValueAsString(json),
-                MediaType.parse("application/json")
-        );
-
-        Request request = new Request.Builder()
-                .url("https://api.openai.com/v1/embeddings")
-                .post(body)
-                .addHeader("Authorization", "Bearer " + API_KEY)
-                .build();
-
-        try (Response response = client.newCall(request).execute()) {
-            String resBody = response.body().string();
-            
-            if (!response.isSuccessful()) {
-                throw new Exception("OpenAI API call failed: HTTP " + response.code() + " - " + resBody);
-            }
-            
-            Map<String, Object> res = mapper.readValue(resBody, Map.class);
-            // Safely extract the embedding list
-            List<Map<String, Object>> data = (List<Map<String, Object>>) res.get("data");
-            if (data == null || data.isEmpty()) {
-                 throw new IOException("OpenAI response did not contain embedding data.");
-            }
-            
-            // Note: If you reduce the embedding size in the request (using "dimensions"), 
-            // you must update VECTOR_SIZE at the top of this class.
-            return (List<Double>) data.get(0).get("embedding");
+    public static ChunkedText chunkPdf(InputStream in) throws IOException {
+        Path spill = spillPdf(in);
+        try {
+            return chunkPdf(spill.toFile());
+        } finally {
+            Files.deleteIfExists(spill);
         }
     }
 
-    // ------------------- Main Pipeline -------------------
-    public static void processFolder(String folderPath) throws Exception {
-        File folder = new File(folderPath);
-        if (!folder.exists() || !folder.isDirectory()) {
-            System.out.println("Folder not found: " + folderPath);
-            return;
+    /** Copies every chunk out of the chunker, which is where a document's text is held in full. */
+    private static ChunkedText collect(Iterable<Chunker.Chunk> chunks, boolean paged) {
+        List<String> texts = new ArrayList<>();
+        List<Integer> pages = new ArrayList<>();
+        for (Chunker.Chunk chunk : chunks) {
+            texts.add(chunk.text().toString());
+            pages.add(paged ? chunk.page() + 1 : 0);
         }
+        return new ChunkedText(texts, pages);
+    }
 
-        File[] files = folder.listFiles();
-        if (files == null) return;
+    // ------------------- OpenAI Embeddings -------------------
+    public static Embedding getEmbedding(String text) throws Exception {
+        return EmbeddingService.embed(text);
+    }
 
-        for (File file : files) {
-            if (file.isDirectory()) {
-                processFolder(file.getAbsolutePath()); // recursive for subfolders
-                continue;
-            }
+    // ------------------- Main Pipeline -------------------
 
-            String text = "";
-            String name = file.getName().toLowerCase();
-            try {
-                if (name.endsWith(".pdf")) {
-                    text = extractTextPdf(file.getAbsolutePath());
-                } else if (name.endsWith(".docx")) {
-                    text = extractTextDocx(file.getAbsolutePath());
-                } else if (name.endsWith(".pptx")) {
-                    text = extractTextPptx(file.getAbsolutePath());
-                } else {
-                    System.out.println("Skipping unsupported file: " + file.getName());
-                    continue;
-                }
-            } catch (Exception e) {
-                System.out.println("Error reading file: " + file.getName() + " -> " + e.getMessage());
-                continue;
-            }
-            
-            // Check if file is empty
-            if (text.trim().isEmpty()) {
-                System.out.println("Skipping empty file: " + file.getName());
-                continue;
-            }
+    public static boolean isSupported(String filename) {
+        String name = filename.toLowerCase();
+        return name.endsWith(".pdf") || name.endsWith(".docx") || name.endsWith(".pptx");
+    }
 
-            List<String> chunks = splitText(text, 500, 50); // chunk size 500, overlap 50
-
-            for (int i = 0; i < chunks.size(); i++) {
-                List<Double> embedding = getEmbedding(chunks.get(i));
-                
-                // --- FIX: Using the robust upsert method and unique ID ---
-                long pointId = ID_COUNTER.incrementAndGet(); // Get a unique, atomic ID
-                
-                QdrantClient.upsertVectorWithCollectionCheck(
-                    COLLECTION_NAME, 
-                    VECTOR_SIZE, 
-                    DISTANCE_METRIC, 
-                    pointId, 
-                    embedding, 
-                    file.getName(), // Use the actual filename from the loop
-                    i,
-                    chunks.get(i)
-                );
-                // --------------------------------------------------------
-
-                System.out.println("Processed chunk " + i + " (ID: " + pointId + ") from " + file.getName());
-            }
+    /**
+     * Extracts the text of a supported document from a stream; the file name selects the extractor.
+     */
+    public static String extractText(String filename, InputStream in) throws Exception {
+        String name = filename.toLowerCase();
+        if (name.endsWith(".pdf")) {
+            return extractTextPdf(in);
+        } else if (name.endsWith(".docx")) {
+            return extractTextDocx(in);
+        } else if (name.endsWith(".pptx")) {
+            return extractTextPptx(in);
         }
+        throw new IOException("Unsupported file type: " + filename);
+    }
+
+    static IngestionPipeline newPipeline() {
+        return new IngestionPipeline(COLLECTION_NAME, VECTOR_SIZE, DISTANCE_METRIC);
+    }
+
+    public static void processFolder(String folderPath) throws Exception {
+        // Extraction, embedding and upserts run as concurrent stages
+        IngestionPipeline pipeline = newPipeline();
+        pipeline.run(folderPath);
+        System.out.println("Ingested " + pipeline.getChunksWritten() + " chunks from " + pipeline.getFilesProcessed()
+                + " files (" + pipeline.getFilesSkipped() + " unchanged files skipped)");
     }
 
     // ------------------- Main -------------------
     public static void main(String[] args) throws Exception {
         System.out.println("--- Starting Document Ingestion into Qdrant ---");
-        System.out.println("Collection: " + COLLECTION_NAME + ", Embedding Model: " + EMBEDDING_MODEL);
+        System.out.println("Collection: " + COLLECTION_NAME + ", Embedding Model: " + EmbeddingService.EMBEDDING_MODEL
+                + " (" + VECTOR_SIZE + " dimensions)");
         
         String downloadsFolder = "./downloads_";
         processFolder(downloadsFolder);
         
-        System.out.println("\n--- All files processed! Total vectors upserted: " + (ID_COUNTER.get() - (System.currentTimeMillis() * 100)) + " ---");
+        System.out.println("\n--- All files processed! ---");
     }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.databind.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What the last Drive sync saw: the changes-feed start page token plus, per Drive file ID,
+ * the version that was downloaded and where it was written. Files whose fetch failed are kept
+ * in {@link #retryIds}: the token moves past their change either way, so the feed won't list
+ * them again unless they are edited.
+ */
+public class DriveSyncState {
+
+    /** The downloaded version of one Drive file. */
+    public record SyncedFile(String name, String mimeType, String modifiedTime, String md5Checksum, String localPath) {}
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public String startPageToken;
+    public Map<String, SyncedFile> files = new ConcurrentHashMap<>();
+    public Set<String> retryIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Loads the state from disk, or starts an empty one (forcing a full listing) if the file does not exist.
+     */
+    public static DriveSyncState load(String path) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) {
+            return new DriveSyncState();
+        }
+        DriveSyncState state = mapper.readValue(file, DriveSyncState.class);
+        state.files = new ConcurrentHashMap<>(state.files);
+        Set<String> retryIds = ConcurrentHashMap.newKeySet();
+        retryIds.addAll(state.retryIds);
+        state.retryIds = retryIds;
+        return state;
+    }
+
+    /** Writes the state to a temp file and moves it into place. */
+    public synchronized void save(String path) throws IOException {
+        File file = new File(path);
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        mapper.writerWithDefaultPrettyPrinter().writeValue(tmp, this);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * True if the Drive version differs from what was downloaded last time. Native Google
+     * Docs/Slides have no md5Checksum, so modifiedTime is compared as well.
+     */
+    public boolean isChanged(String fileId, String modifiedTime, String md5Checksum) {
+        SyncedFile previous = files.get(fileId);
+        if (previous == null) {
+            return true;
+        }
+        return !Objects.equals(previous.modifiedTime(), modifiedTime)
+                || !Objects.equals(previous.md5Checksum(), md5Checksum);
+    }
+}
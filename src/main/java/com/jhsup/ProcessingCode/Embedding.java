@@ -0,0 +1,114 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * One embedding vector, backed by a float[] instead of 1536 boxed Doubles. Serializes to a
+ * plain JSON array, so it can be put straight into Qdrant request bodies.
+ */
+public final class Embedding {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final float[] values;
+
+    public Embedding(float[] values) {
+        this.values = values;
+    }
+
+    /** The backing array (not a copy). */
+    @JsonValue
+    public float[] values() {
+        return values;
+    }
+
+    public int dimensions() {
+        return values.length;
+    }
+
+    /**
+     * Reads an OpenAI /v1/embeddings response with the streaming parser, without building a
+     * tree or a Map. Each vector may be a JSON array of numbers or, when the request asked
+     * for encoding_format=base64, a base64 string of little-endian float32s.
+     * @param expected Number of inputs in the request.
+     * @return The embeddings ordered by their "index" field.
+     */
+    public static Embedding[] parseResponse(InputStream body, int expected) throws IOException {
+        Embedding[] embeddings = new Embedding[expected];
+        int found = 0;
+
+        try (JsonParser p = jsonFactory.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Embedding response is not a JSON object");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if (!field.equals("data")) {
+                    p.skipChildren();
+                    continue;
+                }
+                if (p.currentToken() != JsonToken.START_ARRAY) throw new IOException("Embedding response has no data array");
+
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    int index = -1;
+                    float[] vector = null;
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String itemField = p.getCurrentName();
+                        JsonToken value = p.nextToken();
+                        if (itemField.equals("index")) {
+                            index = p.getIntValue();
+                        } else if (itemField.equals("embedding")) {
+                            vector = value == JsonToken.VALUE_STRING ? decodeBase64(p) : readFloats(p);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                    if (index < 0 || index >= expected || vector == null || embeddings[index] != null) {
+                        throw new IOException("Malformed embedding in response (index " + index + ")");
+                    }
+                    embeddings[index] = new Embedding(vector);
+                    found++;
+                }
+            }
+        }
+
+        if (found != expected) {
+            throw new IOException("OpenAI response did not contain one embedding per input.");
+        }
+        return embeddings;
+    }
+
+    /** Reads a JSON array of numbers; the parser is on START_ARRAY. */
+    private static float[] readFloats(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) throw new IOException("Embedding is not an array");
+        float[] vector = new float[1536];
+        int size = 0;
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (size == vector.length) vector = Arrays.copyOf(vector, size * 2);
+            vector[size++] = p.getFloatValue();
+        }
+        return size == vector.length ? vector : Arrays.copyOf(vector, size);
+    }
+
+    private static float[] decodeBase64(JsonParser p) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(p.getBinaryValue()).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[bytes.remaining() / 4];
+        bytes.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /** Writes a vector as a JSON array of numbers, without boxing. */
+    public static void write(JsonGenerator g, float[] values) throws IOException {
+        g.writeStartArray(values, values.length);
+        for (float v : values) {
+            g.writeNumber(v);
+        }
+        g.writeEndArray();
+    }
+}
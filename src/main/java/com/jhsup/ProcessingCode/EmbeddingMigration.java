@@ -0,0 +1,155 @@
+package com.jhsup.ProcessingCode;
+
+import okhttp3.*;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Copies a Qdrant collection into a new collection at EMBEDDING_DIMENSIONS, keeping point IDs
+ * and payloads (so the {@link ChunkStore} stays valid). Two modes:
+ *   truncate   keeps the first EMBEDDING_DIMENSIONS values of each vector and renormalizes it
+ *              to unit length. No API calls; only valid for text-embedding-3 vectors, which are
+ *              trained so that their prefixes are usable embeddings.
+ *   reembed    embeds each chunk's text again with the "dimensions" parameter. Costs API calls
+ *              but works for any source model; points whose text can't be found are skipped.
+ *
+ * Points whose text is available (chunk store or payload) also get the sparse "text" vector
+ * in the target, so migrating is also how an older collection gains hybrid search.
+ *
+ * The target is written through {@link VectorStore#fromSettings}, so VECTOR_STORE=embedded
+ * migrates into the in-process index instead. Point COLLECTION_NAME (and EMBEDDING_DIMENSIONS)
+ * at the target once it is complete.
+ *
+ * Usage: EmbeddingMigration source target [truncate|reembed]
+ *   e.g. java -DEMBEDDING_DIMENSIONS=512 ... EmbeddingMigration class_notes class_notes_512 truncate
+ */
+public class EmbeddingMigration {
+
+    private static final int PAGE_SIZE = 256;
+
+    private static final OkHttpClient client = QdrantClient.httpClient();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: EmbeddingMigration source target [truncate|reembed]");
+            return;
+        }
+        String source = args[0];
+        String target = args[1];
+        String mode = args.length > 2 ? args[2].toLowerCase() : "truncate";
+        if (!mode.equals("truncate") && !mode.equals("reembed")) {
+            throw new IllegalArgumentException("Unknown mode '" + mode + "', expected truncate or reembed");
+        }
+        if (source.equals(target)) {
+            throw new IllegalArgumentException("Source and target must be different collections");
+        }
+
+        int dimensions = EmbeddingService.DIMENSIONS;
+        Integer sourceSize = QdrantClient.vectorSize(source);
+        if (sourceSize == null) {
+            throw new IllegalArgumentException("Collection '" + source + "' does not exist");
+        }
+        if (mode.equals("truncate") && sourceSize < dimensions) {
+            throw new IllegalArgumentException("Cannot truncate " + sourceSize + "-dimensional vectors to " + dimensions);
+        }
+        System.out.println("Migrating '" + source + "' (" + sourceSize + " dimensions) to '" + target
+                + "' (" + dimensions + " dimensions) by " + mode);
+
+        ChunkStore chunkStore = ChunkStore.open();
+        VectorStore targetStore = VectorStore.fromSettings(target, dimensions, "Cosine");
+        long migrated = 0;
+        long skipped = 0;
+
+        try (VectorStore.Writer writer = targetStore.openWriter()) {
+            JsonNode offset = null;
+            do {
+                // --- Step 1: Read a page of points ---
+                JsonNode page = scroll(source, offset, mode.equals("truncate"));
+                List<Long> ids = new ArrayList<>();
+                List<Map<String, Object>> payloads = new ArrayList<>();
+                List<float[]> vectors = new ArrayList<>();
+                List<SparseVector> sparseVectors = new ArrayList<>();
+                List<String> texts = new ArrayList<>();
+                for (JsonNode point : page.path("points")) {
+                    long id = point.path("id").asLong();
+                    Map<String, Object> payload = mapper.convertValue(point.path("payload"), new TypeReference<Map<String, Object>>() {});
+                    ChunkStore.Chunk chunk = chunkStore.get(id);
+                    String text = chunk != null ? chunk.text() : (String) payload.get("text_content");
+
+                    if (mode.equals("truncate")) {
+                        vectors.add(truncate(point.path("vector").path("embedding"), dimensions));
+                    } else if (text == null || text.isEmpty()) {
+                        skipped++;
+                        continue;
+                    } else {
+                        texts.add(text);
+                    }
+                    ids.add(id);
+                    payloads.add(payload);
+                    sparseVectors.add(text == null ? null : SparseEncoder.encodeDocument(text));
+                }
+
+                // --- Step 2: Re-embed the page in one batch ---
+                if (mode.equals("reembed") && !texts.isEmpty()) {
+                    for (Embedding embedding : EmbeddingService.embedAll(texts)) {
+                        vectors.add(embedding.values());
+                    }
+                }
+
+                // --- Step 3: Write to the target ---
+                for (int i = 0; i < ids.size(); i++) {
+                    writer.add(ids.get(i), vectors.get(i), sparseVectors.get(i), payloads.get(i));
+                }
+                migrated += ids.size();
+                System.out.println("Migrated " + migrated + " points" + (skipped > 0 ? " (" + skipped + " without text skipped)" : ""));
+
+                offset = page.path("next_page_offset");
+            } while (!offset.isNull() && !offset.isMissingNode());
+            writer.checkpoint();
+        }
+
+        System.out.println("Done: " + migrated + " points in '" + target + "'. Set COLLECTION_NAME=" + target
+                + " and EMBEDDING_DIMENSIONS=" + dimensions + " to use it.");
+    }
+
+    /** The first {@code dimensions} values, scaled back to unit length. */
+    static float[] truncate(JsonNode vector, int dimensions) {
+        float[] values = new float[dimensions];
+        double sumOfSquares = 0;
+        for (int i = 0; i < dimensions; i++) {
+            values[i] = (float) vector.get(i).asDouble();
+            sumOfSquares += values[i] * values[i];
+        }
+        if (sumOfSquares > 0) {
+            float scale = (float) (1.0 / Math.sqrt(sumOfSquares));
+            for (int i = 0; i < dimensions; i++) {
+                values[i] *= scale;
+            }
+        }
+        return values;
+    }
+
+    /** One page of /points/scroll: {"points": [...], "next_page_offset": id or null}. */
+    private static JsonNode scroll(String collection, JsonNode offset, boolean withVectors) throws IOException {
+        Map<String, Object> body = new HashMap<>();
+        body.put("limit", PAGE_SIZE);
+        body.put("with_payload", true);
+        body.put("with_vector", withVectors ? List.of("embedding") : false);
+        if (offset != null) body.put("offset", offset);
+
+        Request request = new Request.Builder()
+                .url(QdrantClient.QDRANT_URL + "/collections/" + collection + "/points/scroll")
+                .post(RequestBody.create(mapper.writeValueAsBytes(body), MediaType.parse("application/json")))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Qdrant scroll failed: HTTP " + response.code() + " - " + response.body().string());
+            }
+            return mapper.readTree(response.body().byteStream()).path("result");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.jhsup.ProcessingCode;
+
+import io.micrometer.core.instrument.Counter;
+import okhttp3.*;
+import com.fasterxml.jackson.databind.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batching client for the OpenAI embeddings endpoint.
+ * Groups many chunks into a single /v1/embeddings request (the endpoint accepts an
+ * array of inputs) instead of one round trip per chunk.
+ * Vectors are requested base64-encoded and decoded straight into float arrays.
+ *
+ * Settings (env / -D), shared by ingestion, queries and collection creation:
+ *   EMBEDDING_MODEL        defaults to text-embedding-3-small
+ *   EMBEDDING_DIMENSIONS   vector size, defaults to 1536. When set, it is sent as the
+ *                          "dimensions" parameter and the text-embedding-3 models return
+ *                          shortened vectors (e.g. 512: a third of the storage and distance work).
+ *                          Existing collections must be migrated, see {@link EmbeddingMigration}.
+ *   OPENAI_BASE_URL        defaults to https://api.openai.com/v1; point it at a proxy or at
+ *                          the load-test stand-ins
+ *   OPENAI_KEY             API key
+ */
+public class EmbeddingService {
+
+    private static final String API_KEY = Settings.get("OPENAI_KEY", null);
+    public static final String OPENAI_BASE_URL = Settings.get("OPENAI_BASE_URL", "https://api.openai.com/v1");
+    public static final String EMBEDDING_MODEL = Settings.get("EMBEDDING_MODEL", "text-embedding-3-small");
+    public static final int DIMENSIONS = Settings.getInt("EMBEDDING_DIMENSIONS", 1536);
+    // Only sent when configured: older models reject the parameter even at their native size
+    private static final boolean DIMENSIONS_CONFIGURED = Settings.get("EMBEDDING_DIMENSIONS", null) != null;
+
+    // --- Batch limits ---
+    // OpenAI allows up to 2048 inputs and ~300k tokens per request; stay well below both.
+    private static final int MAX_INPUTS_PER_REQUEST = 256;
+    private static final int MAX_TOKENS_PER_REQUEST = 100_000;
+    // Rough token estimate for English text (~4 chars per token)
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private static final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(30, TimeUnit.SECONDS)
+            .readTimeout(120, TimeUnit.SECONDS) // large batches take longer to come back
+            .writeTimeout(60, TimeUnit.SECONDS)
+            .build();
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Counter embeddedInputs = Counter.builder("jarvis.embedding.inputs")
+            .description("Texts embedded during ingestion")
+            .register(Telemetry.meters());
+
+    /**
+     * Embeds all texts, batching them by input count and token budget.
+     * @param texts The chunks to embed.
+     * @return One embedding per input, in the same order as {@code texts}.
+     * @throws Exception if any batch fails after splitting.
+     */
+    public static List<Embedding> embedAll(List<String> texts) throws Exception {
+        if (API_KEY == null || API_KEY.trim().isEmpty()) {
+            throw new IllegalStateException("OPENAI_KEY environment variable is not set.");
+        }
+
+        List<Embedding> results = new ArrayList<>(Collections.nCopies(texts.size(), null));
+
+        int start = 0;
+        while (start < texts.size()) {
+            int end = start;
+            int batchTokens = 0;
+            // Grow the batch until we hit the input count or the token budget
+            while (end < texts.size() && end - start < MAX_INPUTS_PER_REQUEST) {
+                int tokens = estimateTokens(texts.get(end));
+                if (end > start && batchTokens + tokens > MAX_TOKENS_PER_REQUEST) break;
+                batchTokens += tokens;
+                end++;
+            }
+            embedBatch(texts, start, end, results);
+            start = end;
+        }
+        return results;
+    }
+
+    /**
+     * Embeds texts[start, end) in one request and writes the vectors into results.
+     * If the API rejects the batch as too large, it is split in half and retried.
+     */
+    private static void embedBatch(
+            List<String> texts, int start, int end, List<Embedding> results
+    ) throws Exception {
+        Map<String, Object> json = requestBody(texts.subList(start, end));
+
+        Request request = new Request.Builder()
+                .url(OPENAI_BASE_URL + "/embeddings")
+                .post(RequestBody.create(mapper.writeValueAsString(json), MediaType.parse("application/json")))
+                .addHeader("Authorization", "Bearer " + API_KEY)
+                .build();
+
+        // Null when the batch has to be split
+        Embedding[] embeddings = Telemetry.time("jarvis.embedding.request", () -> {
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    String resBody = response.body() != null ? response.body().string() : "";
+                    // 400 usually means the batch exceeded a token limit: split and retry
+                    if (response.code() == 400 && end - start > 1) {
+                        return null;
+                    }
+                    throw new Exception("OpenAI API call failed: HTTP " + response.code() + " - " + resBody);
+                }
+                // Each item carries the index of its input, so vectors come back in input order
+                return Embedding.parseResponse(response.body().byteStream(), end - start);
+            }
+        }, "source", "ingest");
+
+        if (embeddings == null) {
+            int mid = start + (end - start) / 2;
+            embedBatch(texts, start, mid, results);
+            embedBatch(texts, mid, end, results);
+            return;
+        }
+        for (int i = 0; i < embeddings.length; i++) {
+            checkDimensions(embeddings[i]);
+            results.set(start + i, embeddings[i]);
+        }
+        embeddedInputs.increment(end - start);
+    }
+
+    /** Embeds a single text (e.g. a search query). */
+    public static Embedding embed(String text) throws Exception {
+        return embedAll(Collections.singletonList(text)).get(0);
+    }
+
+    /**
+     * The body of a /v1/embeddings request for the configured model and dimensions.
+     * @param input A single string or a list of strings.
+     */
+    public static Map<String, Object> requestBody(Object input) {
+        Map<String, Object> json = new HashMap<>();
+        json.put("input", input);
+        json.put("model", EMBEDDING_MODEL);
+        json.put("encoding_format", "base64"); // 4 bytes per value instead of ~20 chars of JSON
+        if (DIMENSIONS_CONFIGURED) {
+            json.put("dimensions", DIMENSIONS);
+        }
+        return json;
+    }
+
+    /** Fails fast if the API returned vectors that don't fit the collection. */
+    public static Embedding checkDimensions(Embedding embedding) throws IOException {
+        if (embedding.dimensions() != DIMENSIONS) {
+            throw new IOException(EMBEDDING_MODEL + " returned " + embedding.dimensions()
+                    + "-dimensional vectors, but EMBEDDING_DIMENSIONS is " + DIMENSIONS);
+        }
+        return embedding;
+    }
+
+    private static int estimateTokens(String text) {
+        return text.length() / CHARS_PER_TOKEN + 1;
+    }
+}
@@ -0,0 +1,866 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process vector index for deployments without a Qdrant container: an HNSW graph over
+ * cosine similarity. Vectors are normalized on insert, so a similarity is a plain dot product.
+ *
+ * The vectors live off the heap, in a memory-mapped file of floats ({collection}-{epoch}.vectors)
+ * that inserts write into in place; the page cache keeps the hot part in memory and nothing is
+ * copied on save. The graph (int neighbour lists), IDs, tombstones and payloads are small next
+ * to the vectors and are kept on the heap; a save forces the vectors to disk, then rewrites
+ * {collection}.hnsw, which records how many vectors are valid, and atomically replaces it.
+ *
+ * A point is updated by tombstoning its old node and inserting a new one; a delete only
+ * tombstones, and both are persisted by the next save (a writer's checkpoint or close, or
+ * {@link #flush()}). Tombstones still route searches but are never returned; once they pass
+ * 20% of the nodes, the next save rebuilds the graph without them into a new vector file (the
+ * next epoch) and deletes the old one.
+ *
+ * A {@link Tenant} search keeps walking the graph with a wider candidate list until it has
+ * enough of the tenant's points (the embedded index serves one installation, so tenants are
+ * few and a filter rarely excludes most of the graph).
+ *
+ * Searches take a read lock and run concurrently; writes take the write lock. If another
+ * process (e.g. the ingestion job) rewrites the file, it is re-read on the next search.
+ *
+ * Settings (env / -D):
+ *   VECTOR_STORE_DIR       directory of the index files, defaults to ./vector_store
+ *   HNSW_M                 neighbours per node and layer, defaults to 16 (twice that on layer 0)
+ *   HNSW_EF_CONSTRUCTION   candidate list size while inserting, defaults to 200
+ *   HNSW_EF_SEARCH         candidate list size while searching, defaults to 100
+ */
+public class HnswVectorStore implements VectorStore {
+
+    private static final Logger log = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    private static final int MAGIC = 0x4A484E57; // "JHNW"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 7 * 4 + 8 + 8;
+    private static final long RELOAD_CHECK_MS = 1000;
+    private static final int[] NO_NEIGHBOURS = new int[0];
+
+    // One instance per file, so the pipeline's writers and deletes share the same graph
+    private static final Map<Path, HnswVectorStore> openStores = new HashMap<>();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random random = new Random();
+
+    private final Path file;
+    private final int dimensions;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+
+    // --- Graph state, guarded by lock ---
+    private int count;
+    private VectorFile vectors; // opened by the first load or insert
+    private long vectorEpoch;
+    private long[] ids = new long[0];
+    private byte[][] payloads = new byte[0][]; // JSON, only parsed for returned hits
+    private int[][][] neighbours = new int[0][][]; // [node][layer] -> neighbour nodes
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private final Map<Long, Integer> nodeById = new HashMap<>();
+    private int entryPoint = -1;
+    private int maxLayer = -1;
+    private volatile long generation; // also read without the lock, see lastGeneration()
+
+    private volatile boolean dirty; // written in memory since the last save
+    private volatile long fileModifiedAt;
+    private volatile long lastReloadCheck;
+
+    private record Scored(int node, float score) {}
+
+    private static final Comparator<Scored> BEST_FIRST = (a, b) -> Float.compare(b.score(), a.score());
+    private static final Comparator<Scored> WORST_FIRST = (a, b) -> Float.compare(a.score(), b.score());
+
+    /**
+     * @return The shared store for this collection, loaded from VECTOR_STORE_DIR if it was saved before.
+     */
+    public static HnswVectorStore open(String collectionName, int vectorSize, String distanceMetric) {
+        if (!distanceMetric.equalsIgnoreCase("Cosine")) {
+            throw new IllegalArgumentException("The embedded vector store only supports Cosine, not " + distanceMetric);
+        }
+        Path file = Paths.get(Settings.get("VECTOR_STORE_DIR", "./vector_store"), collectionName + ".hnsw")
+                .toAbsolutePath().normalize();
+        synchronized (openStores) {
+            HnswVectorStore store = openStores.get(file);
+            if (store == null) {
+                store = new HnswVectorStore(file, vectorSize,
+                        Settings.getInt("HNSW_M", 16),
+                        Settings.getInt("HNSW_EF_CONSTRUCTION", 200),
+                        Settings.getInt("HNSW_EF_SEARCH", 100));
+                try {
+                    store.load();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not load vector index " + file, e);
+                }
+                openStores.put(file, store);
+            } else if (store.dimensions != vectorSize) {
+                throw new IllegalArgumentException("Vector index " + file + " holds " + store.dimensions
+                        + "-dimensional vectors, not " + vectorSize);
+            }
+            return store;
+        }
+    }
+
+    public HnswVectorStore(Path file, int dimensions, int m, int efConstruction, int efSearch) {
+        this.file = file;
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    // ------------------- VectorStore -------------------
+
+    @Override
+    public Writer openWriter() {
+        return new Writer() {
+            @Override
+            public void add(long id, float[] vector, Map<String, Object> payload) throws Exception {
+                upsert(id, vector, payload);
+            }
+
+            @Override
+            public void checkpoint() throws IOException {
+                save();
+            }
+
+            @Override
+            public void close() throws IOException {
+                save();
+            }
+        };
+    }
+
+    /** Adds or replaces one point in memory; it is persisted by the next save. */
+    public void upsert(long id, float[] vector, Map<String, Object> payload) throws IOException {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected a " + dimensions + "-dimensional vector, got " + vector.length);
+        }
+        byte[] json = mapper.writeValueAsBytes(payload);
+        lock.writeLock().lock();
+        try {
+            Integer previous = nodeById.get(id);
+            if (previous != null) {
+                tombstone(previous);
+            }
+            insert(id, normalize(vector), json);
+            generation++;
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Applied in memory right away (searches stop returning the points); persisted by the next save. */
+    @Override
+    public void delete(List<Long> idsToDelete) {
+        if (idsToDelete.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            for (Long id : idsToDelete) {
+                Integer node = nodeById.get(id);
+                if (node != null) {
+                    tombstone(node);
+                }
+            }
+            generation++;
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (dirty) save();
+    }
+
+    /** No sparse index here: always a dense search. */
+    @Override
+    public List<Hit> search(float[] query, SparseVector sparseQuery, int limit, double minScore, Tenant tenant) throws IOException {
+        reloadIfChanged();
+        float[] q = normalize(query);
+        List<Hit> hits = new ArrayList<>(limit);
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) return hits;
+
+            Scored closest = new Scored(entryPoint, similarity(q, entryPoint));
+            for (int layer = maxLayer; layer > 0; layer--) {
+                closest = searchLayer(q, List.of(closest), 1, layer, false).get(0);
+            }
+            int ef = Math.max(efSearch, limit);
+            while (true) {
+                List<Scored> found = searchLayer(q, List.of(closest), ef, 0, true);
+                hits.clear();
+                boolean exhausted = found.size() < ef; // the whole reachable graph was visited
+                for (Scored s : found) {
+                    if (hits.size() == limit || s.score() < minScore) {
+                        exhausted = true; // sorted, so the rest score lower
+                        break;
+                    }
+                    Hit hit = readHit(s, tenant);
+                    if (hit != null) hits.add(hit);
+                }
+                if (exhausted || hits.size() == limit || tenant.isAny()) break;
+                ef *= 4; // the tenant's points are sparse here: look further out
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /** The hit for a node, or null if it belongs to another tenant. */
+    private Hit readHit(Scored s, Tenant tenant) throws IOException {
+        if (!tenant.isAny()) {
+            String owner = null;
+            String course = null;
+            try (JsonParser p = mapper.getFactory().createParser(payloads[s.node()])) {
+                p.nextToken();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.getCurrentName();
+                    p.nextToken();
+                    if (field.equals(Tenant.OWNER_FIELD)) owner = p.getValueAsString();
+                    else if (field.equals(Tenant.COURSE_FIELD)) course = p.getValueAsString();
+                    else p.skipChildren();
+                }
+            }
+            if (!tenant.matches(owner, course)) return null;
+        }
+        try (JsonParser p = mapper.getFactory().createParser(payloads[s.node()])) {
+            p.nextToken();
+            return Hit.read(p, ids[s.node()], s.score());
+        }
+    }
+
+    /** Bumped by every write, so callers can tell when cached answers may be stale. */
+    public long getGeneration() {
+        try {
+            reloadIfChanged();
+        } catch (IOException e) {
+            log.warn("Could not reload vector index: {}", e.getMessage());
+        }
+        lock.readLock().lock();
+        try {
+            return generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The generation as of the last search or reload, without checking the file (never blocks). */
+    public long lastGeneration() {
+        return generation;
+    }
+
+    /** Number of live (not deleted) points. */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ------------------- HNSW -------------------
+
+    private void insert(long id, float[] unitVector, byte[] payload) throws IOException {
+        int node = count;
+        ensureCapacity(node + 1);
+        vectors.put(node, unitVector);
+        ids[node] = id;
+        payloads[node] = payload;
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        neighbours[node] = new int[level + 1][];
+        Arrays.fill(neighbours[node], NO_NEIGHBOURS);
+        count++;
+        nodeById.put(id, node);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLayer = level;
+            return;
+        }
+
+        // Greedy descent through the layers above the new node's top layer
+        Scored closest = new Scored(entryPoint, similarity(unitVector, entryPoint));
+        for (int layer = maxLayer; layer > level; layer--) {
+            closest = searchLayer(unitVector, List.of(closest), 1, layer, false).get(0);
+        }
+
+        List<Scored> entries = List.of(closest);
+        for (int layer = Math.min(level, maxLayer); layer >= 0; layer--) {
+            List<Scored> candidates = searchLayer(unitVector, entries, efConstruction, layer, false);
+            int[] selected = selectNeighbours(candidates, m);
+            neighbours[node][layer] = selected;
+            int maxConnections = layer == 0 ? maxM0 : m;
+            for (int neighbour : selected) {
+                connect(neighbour, node, layer, maxConnections);
+            }
+            entries = candidates;
+        }
+
+        if (level > maxLayer) {
+            maxLayer = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Best-first search within one layer.
+     * @param liveOnly If true, tombstones are walked through but kept out of the results, so a
+     *                 deleted region of the graph (e.g. every chunk of a removed file) can't crowd
+     *                 out live points.
+     * @return Up to {@code ef} nodes, most similar first.
+     */
+    private List<Scored> searchLayer(float[] query, List<Scored> entries, int ef, int layer, boolean liveOnly) {
+        BitSet visited = new BitSet(count);
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Scored> results = new PriorityQueue<>(WORST_FIRST);
+        for (Scored entry : entries) {
+            if (visited.get(entry.node())) continue;
+            visited.set(entry.node());
+            candidates.add(entry);
+            if (liveOnly && deleted.get(entry.node())) continue;
+            results.add(entry);
+            if (results.size() > ef) results.poll();
+        }
+
+        while (!candidates.isEmpty()) {
+            Scored current = candidates.poll();
+            if (results.size() >= ef && current.score() < results.peek().score()) {
+                break; // nothing left that could improve the results
+            }
+            int[][] layers = neighbours[current.node()];
+            if (layer >= layers.length) continue;
+            for (int neighbour : layers[layer]) {
+                if (visited.get(neighbour)) continue;
+                visited.set(neighbour);
+                float score = similarity(query, neighbour);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Scored scored = new Scored(neighbour, score);
+                    candidates.add(scored);
+                    if (liveOnly && deleted.get(neighbour)) continue;
+                    results.add(scored);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Neighbour selection heuristic from the HNSW paper: a candidate is skipped if it is closer
+     * to an already selected neighbour than to the base node, which keeps links spread out.
+     * Skipped candidates fill any remaining slots.
+     * @param candidates Sorted most similar first.
+     */
+    private int[] selectNeighbours(List<Scored> candidates, int max) {
+        List<Scored> selected = new ArrayList<>(max);
+        List<Scored> skipped = new ArrayList<>();
+        for (Scored candidate : candidates) {
+            if (selected.size() >= max) break;
+            boolean diverse = true;
+            for (Scored s : selected) {
+                if (similarity(candidate.node(), s.node()) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : skipped).add(candidate);
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+
+        int[] nodes = new int[selected.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = selected.get(i).node();
+        }
+        return nodes;
+    }
+
+    /** Adds a back link from {@code node} to {@code newNeighbour}, pruning if the list is full. */
+    private void connect(int node, int newNeighbour, int layer, int maxConnections) {
+        int[] current = neighbours[node][layer];
+        if (current.length < maxConnections) {
+            int[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = newNeighbour;
+            neighbours[node][layer] = grown;
+            return;
+        }
+
+        List<Scored> candidates = new ArrayList<>(current.length + 1);
+        for (int n : current) {
+            candidates.add(new Scored(n, similarity(node, n)));
+        }
+        candidates.add(new Scored(newNeighbour, similarity(node, newNeighbour)));
+        candidates.sort(BEST_FIRST);
+        neighbours[node][layer] = selectNeighbours(candidates, maxConnections);
+    }
+
+    private void tombstone(int node) {
+        if (deleted.get(node)) return;
+        deleted.set(node);
+        deletedCount++;
+        nodeById.remove(ids[node]);
+    }
+
+    /**
+     * Re-inserts the live nodes into a fresh graph and a new vector file, dropping tombstones.
+     * @return The old vector file, to be deleted once the index no longer refers to it.
+     */
+    private VectorFile rebuild() throws IOException {
+        int oldCount = count;
+        VectorFile oldVectors = vectors;
+        long[] oldIds = ids;
+        byte[][] oldPayloads = payloads;
+        BitSet oldDeleted = (BitSet) deleted.clone();
+
+        clear();
+        vectorEpoch++;
+        vectors = new VectorFile(vectorPath(vectorEpoch), dimensions);
+        float[] vector = new float[dimensions];
+        for (int node = 0; node < oldCount; node++) {
+            if (oldDeleted.get(node)) continue;
+            oldVectors.get(node, vector);
+            insert(oldIds[node], vector, oldPayloads[node]);
+        }
+        return oldVectors;
+    }
+
+    private void clear() {
+        count = 0;
+        ids = new long[0];
+        payloads = new byte[0][];
+        neighbours = new int[0][][];
+        deleted.clear();
+        deletedCount = 0;
+        nodeById.clear();
+        entryPoint = -1;
+        maxLayer = -1;
+    }
+
+    private void ensureCapacity(int nodes) throws IOException {
+        if (vectors == null) {
+            Files.createDirectories(file.getParent());
+            vectors = new VectorFile(vectorPath(vectorEpoch), dimensions);
+        }
+        vectors.ensureCapacity(nodes);
+        if (nodes <= ids.length) return;
+        int capacity = Math.max(nodes, Math.max(16, ids.length + (ids.length >> 1)));
+        ids = Arrays.copyOf(ids, capacity);
+        payloads = Arrays.copyOf(payloads, capacity);
+        neighbours = Arrays.copyOf(neighbours, capacity);
+    }
+
+    private float similarity(float[] query, int node) {
+        return vectors.dot(query, node);
+    }
+
+    private float similarity(int a, int b) {
+        return vectors.dot(a, b);
+    }
+
+    // Unit vectors make cosine similarity a plain dot product
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] unit = new float[vector.length];
+        if (norm == 0) return unit;
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    // ------------------- Persistence -------------------
+
+    /*
+     * Index file layout (little endian):
+     *   header    magic, format version, dimensions, m, count, entry point, max layer, generation,
+     *             vector file epoch
+     *   ids       count longs
+     *   deleted   count bytes
+     *   graph     per node: layer count, then per layer: neighbour count + neighbours
+     *   payloads  per node: byte length + JSON
+     */
+
+    /**
+     * Forces the vectors to disk, writes the rest of the index to a temp file through mapped
+     * buffers, then atomically replaces the old one.
+     */
+    public void save() throws IOException {
+        lock.writeLock().lock();
+        try {
+            VectorFile retired = null;
+            if (deletedCount > 0 && deletedCount * 5L > count) {
+                retired = rebuild();
+            }
+            if (vectors != null) {
+                vectors.force(); // every vector the new index counts is on disk before it does
+            }
+
+            long size = HEADER_BYTES + count * 8L + count;
+            for (int node = 0; node < count; node++) {
+                size += 4;
+                for (int[] layer : neighbours[node]) {
+                    size += 4 + layer.length * 4L;
+                }
+                size += 4 + payloads[node].length;
+            }
+
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.deleteIfExists(tmp);
+            try (FileChannel channel = FileChannel.open(tmp,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedOutput out = new MappedOutput(channel, size);
+                out.putInt(MAGIC);
+                out.putInt(FORMAT_VERSION);
+                out.putInt(dimensions);
+                out.putInt(m);
+                out.putInt(count);
+                out.putInt(entryPoint);
+                out.putInt(maxLayer);
+                out.putLong(generation);
+                out.putLong(vectorEpoch);
+                for (int node = 0; node < count; node++) {
+                    out.putLong(ids[node]);
+                }
+                for (int node = 0; node < count; node++) {
+                    out.putByte(deleted.get(node) ? (byte) 1 : 0);
+                }
+                for (int node = 0; node < count; node++) {
+                    out.putInt(neighbours[node].length);
+                    for (int[] layer : neighbours[node]) {
+                        out.putInt(layer.length);
+                        for (int n : layer) {
+                            out.putInt(n);
+                        }
+                    }
+                }
+                for (int node = 0; node < count; node++) {
+                    out.putInt(payloads[node].length);
+                    out.putBytes(payloads[node]);
+                }
+                out.force();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileModifiedAt = Files.getLastModifiedTime(file).toMillis();
+            dirty = false;
+            if (retired != null) {
+                retired.close();
+                try {
+                    // Another process that still maps it keeps reading until it reloads the index
+                    Files.deleteIfExists(retired.path);
+                } catch (IOException e) {
+                    log.warn("Could not delete old vector file {}: {}", retired.path, e.getMessage());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) return;
+
+        lock.writeLock().lock();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            fileModifiedAt = Files.getLastModifiedTime(file).toMillis();
+            MappedInput in = new MappedInput(channel);
+            if (in.getInt() != MAGIC) throw new IOException("Not a vector index: " + file);
+            int version = in.getInt();
+            if (version != FORMAT_VERSION) throw new IOException("Unsupported vector index version " + version + ": " + file);
+            int fileDimensions = in.getInt();
+            if (fileDimensions != dimensions) {
+                throw new IOException("Vector index " + file + " holds " + fileDimensions
+                        + "-dimensional vectors, not " + dimensions);
+            }
+            in.getInt(); // m the graph was built with; new links follow the current setting
+
+            clear();
+            int nodes = in.getInt();
+            entryPoint = in.getInt();
+            maxLayer = in.getInt();
+            // Never reuse a generation this process has already handed out
+            generation = Math.max(in.getLong(), generation + 1);
+            long epoch = in.getLong();
+            if (vectors != null && epoch != vectorEpoch) {
+                vectors.close(); // another process compacted the index into a new vector file
+                vectors = null;
+            }
+            vectorEpoch = epoch;
+            ensureCapacity(nodes); // also maps what another process appended
+            for (int node = 0; node < nodes; node++) {
+                ids[node] = in.getLong();
+            }
+            for (int node = 0; node < nodes; node++) {
+                if (in.getByte() != 0) {
+                    deleted.set(node);
+                    deletedCount++;
+                }
+            }
+            for (int node = 0; node < nodes; node++) {
+                int[][] layers = new int[in.getInt()][];
+                for (int layer = 0; layer < layers.length; layer++) {
+                    int[] links = new int[in.getInt()];
+                    for (int i = 0; i < links.length; i++) {
+                        links[i] = in.getInt();
+                    }
+                    layers[layer] = links.length == 0 ? NO_NEIGHBOURS : links;
+                }
+                neighbours[node] = layers;
+            }
+            for (int node = 0; node < nodes; node++) {
+                byte[] payload = new byte[in.getInt()];
+                in.getBytes(payload);
+                payloads[node] = payload;
+            }
+            count = nodes;
+            for (int node = 0; node < nodes; node++) {
+                if (!deleted.get(node)) nodeById.put(ids[node], node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Picks up a file rewritten by another process, checking its timestamp at most once a second. */
+    private void reloadIfChanged() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastReloadCheck < RELOAD_CHECK_MS) return;
+        lastReloadCheck = now;
+        if (dirty || !Files.exists(file)) return; // never drop our own unsaved writes
+        if (Files.getLastModifiedTime(file).toMillis() != fileModifiedAt) {
+            load();
+        }
+    }
+
+    private Path vectorPath(long epoch) {
+        String name = file.getFileName().toString().replaceFirst("\\.hnsw$", "");
+        return file.resolveSibling(name + "-" + epoch + ".vectors");
+    }
+
+    /**
+     * Node vectors in a file of little-endian floats, node i at byte i * dimensions * 4 (long
+     * arithmetic, so the file may exceed 2 GB). Mapped read-write in fixed regions of whole
+     * nodes, each under 2 GB; the file grows a region at a time. Reads are absolute, so
+     * concurrent searches share the mappings; writes happen under the store's write lock.
+     */
+    private static final class VectorFile {
+        private static final long REGION_BYTES = 64L << 20;
+
+        final Path path;
+        private final int dimensions;
+        private final int nodesPerRegion;
+        private final FileChannel channel;
+        private final List<MappedByteBuffer> mapped = new ArrayList<>();
+        private final List<FloatBuffer> regions = new ArrayList<>();
+
+        VectorFile(Path path, int dimensions) throws IOException {
+            this.path = path;
+            this.dimensions = dimensions;
+            this.nodesPerRegion = (int) Math.max(1, REGION_BYTES / (dimensions * 4L));
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /** Maps enough regions to hold {@code nodes} vectors, growing the file if needed. */
+        void ensureCapacity(int nodes) throws IOException {
+            long regionBytes = (long) nodesPerRegion * dimensions * 4;
+            while ((long) regions.size() * nodesPerRegion < nodes) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, regions.size() * regionBytes, regionBytes);
+                mapped.add(region);
+                regions.add(region.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+            }
+        }
+
+        void put(int node, float[] vector) {
+            regions.get(node / nodesPerRegion).put((node % nodesPerRegion) * dimensions, vector);
+        }
+
+        void get(int node, float[] into) {
+            regions.get(node / nodesPerRegion).get((node % nodesPerRegion) * dimensions, into);
+        }
+
+        float dot(float[] query, int node) {
+            FloatBuffer region = regions.get(node / nodesPerRegion);
+            int offset = (node % nodesPerRegion) * dimensions;
+            float sum = 0;
+            for (int i = 0; i < dimensions; i++) {
+                sum += query[i] * region.get(offset + i);
+            }
+            return sum;
+        }
+
+        float dot(int a, int b) {
+            FloatBuffer regionA = regions.get(a / nodesPerRegion);
+            FloatBuffer regionB = regions.get(b / nodesPerRegion);
+            int offsetA = (a % nodesPerRegion) * dimensions;
+            int offsetB = (b % nodesPerRegion) * dimensions;
+            float sum = 0;
+            for (int i = 0; i < dimensions; i++) {
+                sum += regionA.get(offsetA + i) * regionB.get(offsetB + i);
+            }
+            return sum;
+        }
+
+        void force() {
+            for (MappedByteBuffer region : mapped) {
+                region.force();
+            }
+        }
+
+        void close() throws IOException {
+            channel.close(); // the mappings stay valid until they are collected
+        }
+    }
+
+    /** Sequential writes through a series of mapped windows, so the file may exceed 2 GB. */
+    private static final class MappedOutput {
+        private static final long WINDOW = 64L << 20;
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buffer;
+        private long windowStart;
+
+        MappedOutput(FileChannel channel, long size) throws IOException {
+            this.channel = channel;
+            this.size = size;
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            if (buffer != null) buffer.force();
+            windowStart = position;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(WINDOW, size - position));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                if (windowStart + buffer.position() + bytes > size) throw new IOException("Vector index size miscalculated");
+                map(windowStart + buffer.position());
+            }
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putBytes(byte[] src) throws IOException {
+            int offset = 0;
+            while (offset < src.length) {
+                ensure(1);
+                int n = Math.min(src.length - offset, buffer.remaining());
+                buffer.put(src, offset, n);
+                offset += n;
+            }
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+
+    /** Sequential reads through a series of read-only mapped windows. */
+    private static final class MappedInput {
+        private static final long WINDOW = 64L << 20;
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buffer;
+        private long windowStart;
+
+        MappedInput(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                if (windowStart + buffer.position() + bytes > size) throw new IOException("Vector index is truncated");
+                map(windowStart + buffer.position());
+            }
+        }
+
+        byte getByte() throws IOException {
+            ensure(1);
+            return buffer.get();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return buffer.getLong();
+        }
+
+        void getBytes(byte[] dst) throws IOException {
+            int offset = 0;
+            while (offset < dst.length) {
+                ensure(1);
+                int n = Math.min(dst.length - offset, buffer.remaining());
+                buffer.get(dst, offset, n);
+                offset += n;
+            }
+        }
+    }
+}
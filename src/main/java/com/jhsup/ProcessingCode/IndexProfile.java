@@ -0,0 +1,106 @@
+package com.jhsup.ProcessingCode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How the Qdrant "embedding" vector is stored and searched: quantization, HNSW graph
+ * parameters, on-disk originals and search-time effort. The same profile feeds collection
+ * creation ({@link #vectorParams}) and every search ({@link #searchParams}).
+ *
+ * Settings (env / -D):
+ *   QDRANT_QUANTIZATION              none, scalar (int8, default) or binary
+ *   QDRANT_QUANTIZATION_ALWAYS_RAM   keep the quantized vectors in RAM, defaults to true
+ *   QDRANT_VECTORS_ON_DISK           keep full-precision vectors on disk (mmap), defaults to true
+ *   QDRANT_RESCORE                   re-rank quantized candidates with the originals, defaults to true
+ *   QDRANT_OVERSAMPLING              candidates fetched per requested hit before rescoring, defaults to 2.0
+ *   HNSW_M, HNSW_EF_CONSTRUCTION     graph parameters; Qdrant's defaults when unset
+ *   HNSW_EF_SEARCH                   search-time hnsw_ef; Qdrant's default when unset
+ *   QDRANT_TENANT_HNSW               build one HNSW graph per owner instead of a global one,
+ *                                    defaults to false (see below)
+ *
+ * With the defaults the collection holds int8 vectors in RAM (a quarter of the float32 size)
+ * and the originals on disk, which are only read to rescore the oversampled candidates.
+ * QDRANT_QUANTIZATION=none with QDRANT_VECTORS_ON_DISK=false is the old behaviour.
+ *
+ * With QDRANT_TENANT_HNSW the global graph is disabled (m=0) and Qdrant builds a graph per
+ * value of the indexed "owner" field (payload_m, HNSW_M or 16), so building and searching
+ * scale with one user's notes. Every search must then be filtered by owner: without the
+ * global graph an unfiltered one would scan the whole collection, so the store refuses it.
+ * The profile only applies to collections created after it was set.
+ */
+public record IndexProfile(
+        String quantization, boolean quantizationAlwaysRam, boolean vectorsOnDisk,
+        boolean rescore, double oversampling,
+        Integer hnswM, Integer hnswEfConstruct, Integer hnswEf,
+        boolean tenantHnsw
+) {
+
+    public static IndexProfile fromSettings() {
+        String quantization = Settings.get("QDRANT_QUANTIZATION", "scalar").toLowerCase();
+        if (!quantization.equals("none") && !quantization.equals("scalar") && !quantization.equals("binary")) {
+            throw new IllegalArgumentException("Unknown QDRANT_QUANTIZATION '" + quantization + "', expected none, scalar or binary");
+        }
+        return new IndexProfile(
+                quantization,
+                Settings.getBoolean("QDRANT_QUANTIZATION_ALWAYS_RAM", true),
+                Settings.getBoolean("QDRANT_VECTORS_ON_DISK", true),
+                Settings.getBoolean("QDRANT_RESCORE", true),
+                Settings.getDouble("QDRANT_OVERSAMPLING", 2.0),
+                optionalInt("HNSW_M"),
+                optionalInt("HNSW_EF_CONSTRUCTION"),
+                optionalInt("HNSW_EF_SEARCH"),
+                Settings.getBoolean("QDRANT_TENANT_HNSW", false));
+    }
+
+    private static Integer optionalInt(String key) {
+        String value = Settings.get(key, null);
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    public boolean quantized() {
+        return !quantization.equals("none");
+    }
+
+    /** The parameters of one named vector for PUT /collections/{name}. */
+    public Map<String, Object> vectorParams(int vectorSize, String distanceMetric) {
+        Map<String, Object> vectorSpec = new HashMap<>();
+        vectorSpec.put("size", vectorSize);
+        vectorSpec.put("distance", distanceMetric);
+        vectorSpec.put("on_disk", vectorsOnDisk);
+
+        Map<String, Object> hnsw = new HashMap<>();
+        if (tenantHnsw) {
+            hnsw.put("m", 0);
+            hnsw.put("payload_m", hnswM != null ? hnswM : 16);
+        } else if (hnswM != null) {
+            hnsw.put("m", hnswM);
+        }
+        if (hnswEfConstruct != null) hnsw.put("ef_construct", hnswEfConstruct);
+        if (!hnsw.isEmpty()) vectorSpec.put("hnsw_config", hnsw);
+
+        if (quantized()) {
+            Map<String, Object> config = new HashMap<>();
+            config.put("always_ram", quantizationAlwaysRam);
+            if (quantization.equals("scalar")) {
+                config.put("type", "int8");
+                config.put("quantile", 0.99); // clip outliers so the int8 range isn't wasted on them
+            }
+            vectorSpec.put("quantization_config", Map.of(quantization, config));
+        }
+        return vectorSpec;
+    }
+
+    /** The "params" object of a search request; empty if everything is left to Qdrant. */
+    public Map<String, Object> searchParams() {
+        Map<String, Object> params = new HashMap<>();
+        if (hnswEf != null) params.put("hnsw_ef", hnswEf);
+        if (quantized()) {
+            Map<String, Object> quantizationParams = new HashMap<>();
+            quantizationParams.put("rescore", rescore);
+            quantizationParams.put("oversampling", oversampling);
+            params.put("quantization", quantizationParams);
+        }
+        return params;
+    }
+}
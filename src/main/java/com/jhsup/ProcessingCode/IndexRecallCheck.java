@@ -0,0 +1,114 @@
+package com.jhsup.ProcessingCode;
+
+import okhttp3.*;
+import com.fasterxml.jackson.databind.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Measures what the {@link IndexProfile} costs in recall and gains in latency. Stored points'
+ * own vectors are used as queries; each one is searched with the profile's parameters and
+ * with an exact, unquantized search, and the top-k IDs are compared.
+ *
+ * Usage: IndexRecallCheck [collection] [samples] [k]   (defaults: COLLECTION_NAME 100 10)
+ */
+public class IndexRecallCheck {
+
+    private static final OkHttpClient client = QdrantClient.httpClient();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        String collection = args.length > 0 ? args[0] : Settings.get("COLLECTION_NAME", "class_notes");
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        IndexProfile profile = IndexProfile.fromSettings();
+        Map<String, Object> exactParams = new HashMap<>();
+        exactParams.put("exact", true);
+        exactParams.put("quantization", Map.of("ignore", true));
+
+        List<JsonNode> queries = sampleVectors(collection, samples);
+        if (queries.isEmpty()) {
+            System.out.println("Collection '" + collection + "' has no points to sample.");
+            return;
+        }
+
+        long[] profileNanos = new long[queries.size()];
+        long[] exactNanos = new long[queries.size()];
+        int found = 0;
+        int expected = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            Set<Long> approximate = search(collection, queries.get(i), k, profile.searchParams());
+            profileNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Set<Long> exact = search(collection, queries.get(i), k, exactParams);
+            exactNanos[i] = System.nanoTime() - start;
+
+            expected += exact.size();
+            for (Long id : exact) {
+                if (approximate.contains(id)) found++;
+            }
+        }
+
+        System.out.println("Profile: " + profile);
+        System.out.printf("Recall@%d over %d queries: %.4f%n", k, queries.size(), expected == 0 ? 1.0 : (double) found / expected);
+        System.out.printf("Profile search  p50 %.2f ms, p99 %.2f ms%n", percentile(profileNanos, 0.50), percentile(profileNanos, 0.99));
+        System.out.printf("Exact search    p50 %.2f ms, p99 %.2f ms%n", percentile(exactNanos, 0.50), percentile(exactNanos, 0.99));
+    }
+
+    /** The first {@code limit} points' "embedding" vectors. */
+    private static List<JsonNode> sampleVectors(String collection, int limit) throws IOException {
+        Map<String, Object> body = new HashMap<>();
+        body.put("limit", limit);
+        body.put("with_payload", false);
+        body.put("with_vector", List.of("embedding"));
+
+        JsonNode result = post("/collections/" + collection + "/points/scroll", body);
+        List<JsonNode> vectors = new ArrayList<>();
+        for (JsonNode point : result.path("points")) {
+            vectors.add(point.path("vector").path("embedding"));
+        }
+        return vectors;
+    }
+
+    private static Set<Long> search(String collection, JsonNode vector, int k, Map<String, Object> params) throws IOException {
+        Map<String, Object> namedVector = new HashMap<>();
+        namedVector.put("name", "embedding");
+        namedVector.put("vector", vector);
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("vector", namedVector);
+        body.put("limit", k);
+        body.put("with_payload", false);
+        if (!params.isEmpty()) body.put("params", params);
+
+        Set<Long> ids = new HashSet<>();
+        for (JsonNode hit : post("/collections/" + collection + "/points/search", body)) {
+            ids.add(hit.path("id").asLong());
+        }
+        return ids;
+    }
+
+    private static JsonNode post(String path, Map<String, Object> body) throws IOException {
+        Request request = new Request.Builder()
+                .url(QdrantClient.QDRANT_URL + path)
+                .post(RequestBody.create(mapper.writeValueAsBytes(body), MediaType.parse("application/json")))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Qdrant request failed: HTTP " + response.code() + " - " + response.body().string());
+            }
+            return mapper.readTree(response.body().byteStream()).path("result");
+        }
+    }
+
+    private static double percentile(long[] nanos, double p) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,45 @@
+package com.jhsup.ProcessingCode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * A counter that ingestion bumps every time it writes or deletes points, kept in a small file
+ * next to the manifest. Re-ingesting an edited document overwrites its points in place, so
+ * the collection's counts don't move; this number does, which lets the app (a separate
+ * process sharing the same disk, as it does for the {@link ChunkStore}) see the change.
+ *
+ * Settings (env / -D):
+ *   INDEX_VERSION_FILE   defaults to ./index_version
+ */
+public final class IndexVersion {
+
+    private static final Path FILE = Path.of(Settings.get("INDEX_VERSION_FILE", "./index_version"));
+
+    private IndexVersion() {
+    }
+
+    /** The current version, 0 if nothing has been ingested yet or the file can't be read. */
+    public static long read() {
+        try {
+            return Long.parseLong(Files.readString(FILE, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Increments the version. Written to a temp file and moved into place, so readers never
+     * see a half-written number.
+     */
+    public static synchronized long bump() throws IOException {
+        long next = read() + 1;
+        Path parent = FILE.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = parent.resolve(FILE.getFileName() + ".tmp");
+        Files.writeString(tmp, Long.toString(next), StandardCharsets.UTF_8);
+        Files.move(tmp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return next;
+    }
+}
@@ -0,0 +1,108 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local record of what has already been ingested: file path -> size, mtime, content hash,
+ * the tenant its points were tagged with and the point IDs written for it. Lets a re-run
+ * skip unchanged files, overwrite changed ones (including ones that now belong to another
+ * tenant) in place and delete the points of removed files.
+ */
+public class IngestionManifest {
+
+    /**
+     * What was ingested for one file. Owner and course are null in entries written before
+     * points carried a tenant, i.e. {@link Tenant#ANY}.
+     */
+    public record Entry(long size, long mtime, String sha256, List<Long> pointIds, String owner, String course) {
+
+        public Entry(long size, long mtime, String sha256, List<Long> pointIds, Tenant tenant) {
+            this(size, mtime, sha256, pointIds, tenant.owner(), tenant.course());
+        }
+
+        /** The tenant the file's points are tagged with. */
+        public Tenant tenant() {
+            return Tenant.of(owner, course);
+        }
+    }
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private IngestionManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the manifest from disk, or starts an empty one if the file does not exist yet.
+     */
+    public static IngestionManifest load(String path) throws IOException {
+        IngestionManifest manifest = new IngestionManifest(new File(path));
+        if (manifest.file.exists()) {
+            Map<String, Entry> saved = mapper.readValue(manifest.file, new TypeReference<Map<String, Entry>>() {});
+            manifest.entries.putAll(saved);
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a temp file and moves it into place, so a crash never leaves
+     * a half-written manifest behind.
+     */
+    public synchronized void save() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File tmp = new File(parent, file.getName() + ".tmp");
+        mapper.writerWithDefaultPrettyPrinter().writeValue(tmp, new TreeMap<>(entries));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    public void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    public Entry remove(String key) {
+        return entries.remove(key);
+    }
+
+    public Map<String, Entry> entries() {
+        return new HashMap<>(entries);
+    }
+
+    public Set<String> keys() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    // ------------------- Helpers -------------------
+
+    /**
+     * Deterministic point ID for a chunk: the same file and chunk index always map to the
+     * same ID, so re-ingesting a file overwrites its points instead of duplicating them.
+     */
+    public static long pointId(String fileKey, int chunkIndex) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((fileKey + "#" + chunkIndex).getBytes(StandardCharsets.UTF_8));
+            long id = 0;
+            for (int i = 0; i < 8; i++) {
+                id = (id << 8) | (hash[i] & 0xFF);
+            }
+            return id & Long.MAX_VALUE; // Qdrant IDs are unsigned
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package com.jhsup.ProcessingCode;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Staged, concurrent ingestion: discovery -> extraction -> chunking -> embedding -> upsert.
+ * Stages are connected by bounded queues, so a slow stage pushes back on the ones before it
+ * instead of letting extracted text pile up in memory.
+ *
+ * Concurrency per stage (env / -D):
+ *   INGEST_EXTRACT_WORKERS  CPU-bound PDF/POI parsing, defaults to the number of cores
+ *   INGEST_CHUNK_WORKERS    defaults to 1 (chunking is cheap); chunk sizes are set on {@link Chunker}
+ *   INGEST_EMBED_WORKERS    concurrent embedding requests, defaults to 8
+ *   INGEST_UPSERT_WORKERS   concurrent vector store writers, defaults to 2
+ *   INGEST_QUEUE_CAPACITY   capacity of each inter-stage queue, defaults to 64
+ *
+ * Runs are incremental: an {@link IngestionManifest} (INGEST_MANIFEST, defaults to
+ * ./ingest_manifest.json) records what was written for each file, unchanged files are
+ * skipped, changed files are overwritten in place (point IDs are derived from the file
+ * path and chunk index) and points of removed files or dropped chunks are deleted. A file
+ * whose {@link Tenant} changed (e.g. INGEST_OWNER was set) counts as changed, so its points
+ * are written again with the new owner and course.
+ * A run that wrote or deleted anything bumps the {@link IndexVersion}.
+ *
+ * Chunk text goes to the local {@link ChunkStore}; the vector store only gets the vector
+ * plus filename, chunk index and the source's {@link Tenant} (owner and course).
+ *
+ * Besides a folder on disk, the pipeline can ingest any {@link Source}, e.g. documents
+ * streamed straight from Google Drive without being staged on disk first.
+ *
+ * Metrics: jarvis.ingest.stage (a timer per stage; its count is the stage's throughput) and
+ * jarvis.ingest.queue.depth (items waiting in front of each stage of the running pipeline).
+ */
+public class IngestionPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    // Marks the end of a queue; every stage forwards it once all of its workers are done
+    private static final Object END = new Object();
+
+    // The queues of the pipeline that is running, by the stage they feed
+    private static final String[] QUEUES = {"ingest-extract", "ingest-chunk", "ingest-embed", "ingest-upsert"};
+    private static final Map<String, BlockingQueue<Object>> runningQueues = new ConcurrentHashMap<>();
+
+    static {
+        for (String queue : QUEUES) {
+            Gauge.builder("jarvis.ingest.queue.depth", () -> {
+                        BlockingQueue<Object> q = runningQueues.get(queue);
+                        return q == null ? 0 : q.size();
+                    })
+                    .tag("stage", queue)
+                    .description("Items waiting for an ingestion stage")
+                    .register(Telemetry.meters());
+        }
+    }
+
+    private final String collectionName;
+    private final int vectorSize;
+    private final String distanceMetric;
+    private VectorStore store;
+    private ChunkStore chunkStore;
+
+    private final int extractWorkers = Settings.getInt("INGEST_EXTRACT_WORKERS", Runtime.getRuntime().availableProcessors());
+    private final int chunkWorkers = Settings.getInt("INGEST_CHUNK_WORKERS", 1);
+    private final int embedWorkers = Settings.getInt("INGEST_EMBED_WORKERS", 8);
+    private final int upsertWorkers = Settings.getInt("INGEST_UPSERT_WORKERS", 2);
+    private final int queueCapacity = Settings.getInt("INGEST_QUEUE_CAPACITY", 64);
+
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final AtomicLong filesProcessed = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong chunksWritten = new AtomicLong();
+    private volatile boolean indexChanged; // points were written or deleted in this run
+
+    private IngestionManifest manifest;
+    private final Set<String> seenKeys = ConcurrentHashMap.newKeySet();
+    private final Set<String> failedKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * One document to ingest. Keys of sources that don't come from the ingestion folder
+     * must contain "://" (e.g. "drive://&lt;fileId&gt;") so folder runs leave them alone.
+     */
+    public interface Source {
+        /** Stable identity, used as the manifest key and to derive point IDs. */
+        String key();
+        /** Name stored in the payload; its extension selects the extractor. */
+        String filename();
+        long size();
+        long mtime();
+        InputStream open() throws Exception;
+
+        /** The file on disk, if there is one (lets PDFs be parsed in place instead of spilled). */
+        default File localFile() {
+            return null;
+        }
+
+        /** Whose notes these are; INGEST_OWNER / INGEST_COURSE unless the source knows better. */
+        default Tenant tenant() {
+            return Tenant.fromSettings();
+        }
+    }
+
+    private record FileSource(File file, String key, long size, long mtime) implements Source {
+        public String filename() {
+            return file.getName();
+        }
+
+        public InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        public File localFile() {
+            return file;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SourceProducer {
+        void produce(BlockingQueue<Object> out) throws Exception;
+    }
+
+    // --- Items passed between stages ---
+    private record ExtractedDocument(Source source, String sha256, String text) {}
+    private record ChunkedDocument(Source source, String sha256, List<String> chunks, List<Integer> pages) {
+        ChunkedDocument(Source source, String sha256, DocumentProcessor.ChunkedText chunked) {
+            this(source, sha256, chunked.chunks(), chunked.pages());
+        }
+    }
+    private record EmbeddedDocument(Source source, String sha256, List<String> chunks, List<Integer> pages, List<Embedding> embeddings) {}
+    // A manifest change that may only be recorded once its points are durably written
+    private record PendingUpdate(String key, IngestionManifest.Entry entry, List<Long> staleIds) {}
+
+    @FunctionalInterface
+    private interface StageFunction<I> {
+        /** Processes one item, handing any results to {@code out}. */
+        void apply(I item, BlockingQueue<Object> out) throws Exception;
+    }
+
+    public IngestionPipeline(String collectionName, int vectorSize, String distanceMetric) {
+        this.collectionName = collectionName;
+        this.vectorSize = vectorSize;
+        this.distanceMetric = distanceMetric;
+    }
+
+    /**
+     * Ingests every supported file under {@code folderPath} and blocks until all stages
+     * have drained and every write has been applied.
+     * @throws Exception the first embedding or upsert failure, after the pipeline has shut down.
+     */
+    public void run(String folderPath) throws Exception {
+        File root = new File(folderPath);
+        if (!root.exists() || !root.isDirectory()) {
+            log.warn("Folder not found: {}", folderPath);
+            return;
+        }
+
+        execute(out -> discover(root, root, out), () -> {
+            // Files tracked in the manifest that are no longer on disk
+            List<String> removed = new ArrayList<>();
+            for (String key : manifest.keys()) {
+                if (!key.contains("://") && !seenKeys.contains(key)) removed.add(key);
+            }
+            return removed;
+        });
+    }
+
+    /**
+     * Ingests the given sources and deletes the points of {@code removedKeys}.
+     * Sources whose size and mtime match the manifest are skipped.
+     */
+    public void run(Iterable<? extends Source> sources, Collection<String> removedKeys) throws Exception {
+        execute(out -> {
+            for (Source source : sources) {
+                offer(source, out);
+            }
+        }, () -> new ArrayList<>(removedKeys));
+    }
+
+    /** Keys of sources that could not be read or extracted in the last run. */
+    public Set<String> getFailedKeys() {
+        return failedKeys;
+    }
+
+    private void execute(SourceProducer producer, Callable<List<String>> removedKeys) throws Exception {
+        store = VectorStore.fromSettings(collectionName, vectorSize, distanceMetric);
+        chunkStore = ChunkStore.open();
+        manifest = IngestionManifest.load(Settings.get("INGEST_MANIFEST", "./ingest_manifest.json"));
+
+        BlockingQueue<Object> discovered = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> extracted = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> chunked = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> embedded = new ArrayBlockingQueue<>(queueCapacity);
+        runningQueues.put(QUEUES[0], discovered);
+        runningQueues.put(QUEUES[1], extracted);
+        runningQueues.put(QUEUES[2], chunked);
+        runningQueues.put(QUEUES[3], embedded);
+
+        List<ExecutorService> pools = new ArrayList<>();
+        List<Future<?>> workers = new ArrayList<>();
+
+        // 1. Discovery: a single thread walks the tree (or lists the sources)
+        ExecutorService discovery = newPool("ingest-discover", 1);
+        pools.add(discovery);
+        workers.add(discovery.submit(() -> {
+            try {
+                producer.produce(discovered);
+            } finally {
+                putUninterruptibly(discovered, END);
+            }
+            return null;
+        }));
+
+        // 2. Extraction: CPU-bound, one worker per core. PDFs are chunked here as their pages
+        //    are stripped, so a large PDF never sits in memory as one string (its chunks are
+        //    still collected, the embed stage takes a document as a whole)
+        startStage(pools, workers, "ingest-extract", extractWorkers, discovered, extracted,
+                (Source source, BlockingQueue<Object> out) -> {
+                    String text = null;
+                    DocumentProcessor.ChunkedText pdfChunks = null;
+                    String sha256;
+                    try (InputStream raw = source.open()) {
+                        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                        DigestInputStream in = new DigestInputStream(new BufferedInputStream(raw), digest);
+                        File local = source.localFile();
+                        boolean pdf = source.filename().toLowerCase().endsWith(".pdf");
+                        // Hash the bytes as the extractor reads them, so the source is only read once
+                        InputStream unclosable = new FilterInputStream(in) {
+                            @Override
+                            public void close() {
+                                // the extractor must not close it before the rest is hashed
+                            }
+                        };
+                        if (pdf && local != null) {
+                            // Already on disk: hash it, then let PDFBox open the file directly
+                            in.transferTo(OutputStream.nullOutputStream());
+                            pdfChunks = DocumentProcessor.chunkPdf(local);
+                        } else if (pdf) {
+                            pdfChunks = DocumentProcessor.chunkPdf(unclosable);
+                        } else {
+                            text = DocumentProcessor.extractText(source.filename(), unclosable);
+                            in.transferTo(OutputStream.nullOutputStream()); // hash anything the parser skipped
+                        }
+                        sha256 = HexFormat.of().formatHex(digest.digest());
+                    } catch (Exception e) {
+                        failedKeys.add(source.key());
+                        log.warn("Error reading file: {} -> {}", source.filename(), e.getMessage());
+                        return;
+                    }
+
+                    // Touched but identical content (e.g. re-downloaded): just refresh size/mtime
+                    IngestionManifest.Entry previous = manifest.get(source.key());
+                    if (previous != null && previous.sha256().equals(sha256) && previous.tenant().equals(source.tenant())) {
+                        manifest.put(source.key(), new IngestionManifest.Entry(
+                                source.size(), source.mtime(), sha256, previous.pointIds(), previous.tenant()));
+                        filesSkipped.incrementAndGet();
+                        return;
+                    }
+                    if (pdfChunks != null ? pdfChunks.chunks().isEmpty() : text.trim().isEmpty()) {
+                        log.info("Skipping empty file: {}", source.filename());
+                        if (manifest.get(source.key()) == null) return;
+                        // It had content before: pass it on with no chunks so its old points get deleted
+                        pdfChunks = null;
+                        text = "";
+                    }
+                    out.put(pdfChunks != null
+                            ? new ChunkedDocument(source, sha256, pdfChunks)
+                            : new ExtractedDocument(source, sha256, text));
+                });
+
+        // 3. Chunking (PDFs arrive already chunked)
+        startStage(pools, workers, "ingest-chunk", chunkWorkers, extracted, chunked,
+                (Object item, BlockingQueue<Object> out) -> {
+                    if (item instanceof ExtractedDocument doc) {
+                        item = new ChunkedDocument(doc.source(), doc.sha256(),
+                                DocumentProcessor.splitText(doc.source().filename(), doc.text()));
+                    }
+                    out.put(item);
+                });
+
+        // 4. Embedding: network-bound, one batched request per document
+        startStage(pools, workers, "ingest-embed", embedWorkers, chunked, embedded,
+                (ChunkedDocument doc, BlockingQueue<Object> out) -> {
+                    if (failure.get() != null) return; // already failing, just drain
+                    List<Embedding> embeddings = doc.chunks().isEmpty()
+                            ? Collections.emptyList()
+                            : EmbeddingService.embedAll(doc.chunks());
+                    out.put(new EmbeddedDocument(doc.source(), doc.sha256(), doc.chunks(), doc.pages(), embeddings));
+                });
+
+        // 5. Upsert: each worker owns a writer, so batches go to the store in parallel
+        ExecutorService upsert = newPool("ingest-upsert", upsertWorkers);
+        pools.add(upsert);
+        Timer upsertTimer = stageTimer("ingest-upsert");
+        for (int w = 0; w < upsertWorkers; w++) {
+            workers.add(upsert.submit(() -> {
+                VectorStore.Writer writer = null;
+                List<PendingUpdate> pending = new ArrayList<>();
+                try {
+                    writer = store.openWriter();
+                } catch (Exception e) {
+                    recordFailure("upsert", e);
+                }
+                try {
+                    // Keep draining even after a failure so upstream stages never block on a full queue
+                    while (true) {
+                        Object item = embedded.take();
+                        if (item == END) {
+                            embedded.put(END); // let the sibling workers see it too
+                            break;
+                        }
+                        if (writer == null || failure.get() != null) continue;
+                        try {
+                            long start = System.nanoTime();
+                            pending.add(write((EmbeddedDocument) item, writer));
+                            upsertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        } catch (Exception e) {
+                            recordFailure("upsert", e);
+                        }
+                    }
+                } finally {
+                    if (writer != null) {
+                        try {
+                            chunkStore.flush(); // chunk text is durable before its points are
+                            writer.close(); // final wait=true flush
+                            // Only now are this worker's points applied, so the manifest may record them
+                            commit(pending);
+                        } catch (Exception e) {
+                            recordFailure("upsert", e);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+
+        // Drain: wait for every worker, then release the threads
+        try {
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    recordFailure("pipeline", (Exception) e.getCause());
+                }
+            }
+        } finally {
+            for (ExecutorService pool : pools) {
+                pool.shutdownNow();
+            }
+            runningQueues.clear();
+        }
+
+        try {
+            if (failure.get() == null) {
+                deleteRemoved(removedKeys.call());
+            }
+        } catch (Exception e) {
+            recordFailure("cleanup", e);
+        } finally {
+            try {
+                store.flush(); // the deletes above, and those of shrunken documents
+            } catch (Exception e) {
+                recordFailure("cleanup", e);
+            }
+            manifest.save();
+            chunkStore.flush();
+            if (indexChanged) {
+                IndexVersion.bump(); // tells the app its cached answers may be stale
+            }
+        }
+
+        Exception e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    public long getFilesProcessed() {
+        return filesProcessed.get();
+    }
+
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    public long getChunksWritten() {
+        return chunksWritten.get();
+    }
+
+    // ------------------- Stages -------------------
+
+    private void discover(File root, File folder, BlockingQueue<Object> out) throws InterruptedException {
+        File[] files = folder.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                discover(root, file, out); // recursive for subfolders
+                continue;
+            }
+            // File identity is its path relative to the ingestion root
+            String key = root.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+            seenKeys.add(key);
+            offer(new FileSource(file, key, file.length(), file.lastModified()), out);
+        }
+    }
+
+    private void offer(Source source, BlockingQueue<Object> out) throws InterruptedException {
+        if (!DocumentProcessor.isSupported(source.filename())) {
+            log.debug("Skipping unsupported file: {}", source.filename());
+            return;
+        }
+        IngestionManifest.Entry previous = manifest.get(source.key());
+        if (previous != null && previous.size() == source.size() && previous.mtime() == source.mtime()
+                && previous.tenant().equals(source.tenant())) {
+            filesSkipped.incrementAndGet(); // unchanged since the last run, same owner and course
+            return;
+        }
+        out.put(source); // blocks while extraction is behind
+    }
+
+    private PendingUpdate write(EmbeddedDocument doc, VectorStore.Writer writer) throws Exception {
+        Source source = doc.source();
+        List<String> chunks = doc.chunks();
+        List<Long> pointIds = new ArrayList<>(chunks.size());
+        Tenant tenant = source.tenant();
+        for (int i = 0; i < chunks.size(); i++) {
+            long pointId = IngestionManifest.pointId(source.key(), i); // same chunk -> same point
+            pointIds.add(pointId);
+            chunkStore.put(pointId, source.filename(), i, chunks.get(i));
+            Map<String, Object> payload = VectorStore.chunkPayload(source.filename(), i);
+            int page = doc.pages().get(i);
+            if (page > 0) {
+                payload.put("page", page); // lets answers cite the page or slide
+            }
+            tenant.putInto(payload);
+            writer.add(pointId, doc.embeddings().get(i).values(), SparseEncoder.encodeDocument(chunks.get(i)), payload);
+        }
+
+        // Chunks that existed last time but not anymore (the file got shorter)
+        List<Long> staleIds = new ArrayList<>();
+        IngestionManifest.Entry previous = manifest.get(source.key());
+        if (previous != null) {
+            Set<Long> current = new HashSet<>(pointIds);
+            for (Long id : previous.pointIds()) {
+                if (!current.contains(id)) staleIds.add(id);
+            }
+        }
+
+        chunksWritten.addAndGet(chunks.size());
+        filesProcessed.incrementAndGet();
+        log.debug("Processed {} chunks from {}", chunks.size(), source.filename());
+        return new PendingUpdate(source.key(),
+                new IngestionManifest.Entry(source.size(), source.mtime(), doc.sha256(), pointIds, tenant), staleIds);
+    }
+
+    private void commit(List<PendingUpdate> pending) throws Exception {
+        if (!pending.isEmpty()) indexChanged = true;
+        List<Long> staleIds = new ArrayList<>();
+        for (PendingUpdate update : pending) {
+            staleIds.addAll(update.staleIds());
+        }
+        if (!staleIds.isEmpty()) {
+            store.delete(staleIds);
+            chunkStore.delete(staleIds);
+        }
+        for (PendingUpdate update : pending) {
+            if (update.entry().pointIds().isEmpty()) {
+                manifest.remove(update.key()); // now empty, nothing left to track
+            } else {
+                manifest.put(update.key(), update.entry());
+            }
+        }
+    }
+
+    /**
+     * Deletes the points of sources that no longer exist and drops them from the manifest.
+     */
+    private void deleteRemoved(List<String> removedKeys) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String key : removedKeys) {
+            IngestionManifest.Entry entry = manifest.get(key);
+            if (entry != null) {
+                ids.addAll(entry.pointIds());
+                removed.add(key);
+            }
+        }
+        if (!ids.isEmpty()) {
+            store.delete(ids);
+            chunkStore.delete(ids);
+            indexChanged = true;
+        }
+        for (String key : removed) {
+            manifest.remove(key);
+            log.info("Removed points of deleted file: {}", key);
+        }
+    }
+
+    /**
+     * Starts {@code workers} threads that take items from {@code in}, apply {@code fn}, and
+     * forward END to {@code out} once the last of them sees END on {@code in}.
+     */
+    private <I> void startStage(
+            List<ExecutorService> pools, List<Future<?>> futures, String name, int workers,
+            BlockingQueue<Object> in, BlockingQueue<Object> out, StageFunction<I> fn
+    ) {
+        ExecutorService pool = newPool(name, workers);
+        pools.add(pool);
+        AtomicInteger running = new AtomicInteger(workers);
+        Timer timer = stageTimer(name);
+
+        for (int w = 0; w < workers; w++) {
+            futures.add(pool.submit(() -> {
+                try {
+                    while (true) {
+                        Object item = in.take();
+                        if (item == END) {
+                            in.put(END); // let the sibling workers see it too
+                            break;
+                        }
+                        try {
+                            @SuppressWarnings("unchecked")
+                            I typed = (I) item;
+                            long start = System.nanoTime();
+                            fn.apply(typed, out);
+                            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            recordFailure(name, e);
+                        }
+                    }
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        putUninterruptibly(out, END);
+                    }
+                }
+                return null;
+            }));
+        }
+    }
+
+    private void recordFailure(String stage, Exception e) {
+        if (failure.compareAndSet(null, e)) {
+            log.error("Ingestion failed in stage '{}': {}", stage, e.getMessage());
+        }
+    }
+
+    /** Time per item in a stage; includes waiting for space in the next queue. */
+    private static Timer stageTimer(String stage) {
+        return Timer.builder("jarvis.ingest.stage")
+                .tag("stage", stage)
+                .description("Items processed by an ingestion stage")
+                .register(Telemetry.meters());
+    }
+
+    private static ExecutorService newPool(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Object> queue, Object item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
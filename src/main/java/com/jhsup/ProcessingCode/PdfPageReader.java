@@ -0,0 +1,73 @@
+package com.jhsup.ProcessingCode;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the text of a PDF a window of pages at a time, so only one window of text is held
+ * and the {@link Chunker} can consume it as it is stripped. Each page ends with a form feed
+ * and each detected paragraph with a blank line, which is where the chunker prefers to cut.
+ *
+ * The document is opened with PDFBox scratch memory capped (stream buffers beyond the cap go
+ * to a temp file), and the resource cache is replaced for every window, so fonts and images
+ * are shared within a window but not kept around for the rest of the document.
+ *
+ * Settings (env / -D):
+ *   PDF_PAGE_WINDOW            pages stripped per step, defaults to 8
+ *   PDF_SCRATCH_MEMORY_BYTES   in-memory scratch buffers before spilling to disk, defaults to 16 MB
+ */
+public class PdfPageReader extends Reader {
+
+    private static final int PAGE_WINDOW = Settings.getInt("PDF_PAGE_WINDOW", 8);
+    private static final long SCRATCH_MEMORY_BYTES = Settings.getLong("PDF_SCRATCH_MEMORY_BYTES", 16L * 1024 * 1024);
+
+    private final PDDocument document;
+    private final PDFTextStripper stripper;
+    private final int pageCount;
+    private int nextPage = 1; // PDFBox pages are 1-based
+    private String window = "";
+    private int position = 0;
+
+    public PdfPageReader(File file) throws IOException {
+        this.document = PDDocument.load(file, MemoryUsageSetting.setupMixed(SCRATCH_MEMORY_BYTES));
+        this.pageCount = document.getNumberOfPages();
+
+        this.stripper = new PDFTextStripper();
+        stripper.setLineSeparator("\n");
+        stripper.setParagraphEnd("\n");
+        stripper.setPageEnd("\f");
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        while (position == window.length()) {
+            if (nextPage > pageCount) return -1;
+            int lastPage = Math.min(pageCount, nextPage + PAGE_WINDOW - 1);
+            stripper.setStartPage(nextPage);
+            stripper.setEndPage(lastPage);
+            document.setResourceCache(new DefaultResourceCache());
+            window = stripper.getText(document);
+            position = 0;
+            nextPage = lastPage + 1;
+        }
+        int n = Math.min(length, window.length() - position);
+        window.getChars(position, position + n, buffer, offset);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        document.close();
+    }
+}
@@ -1,15 +1,40 @@
 package com.jhsup.ProcessingCode;
 
 
+import io.micrometer.core.instrument.Counter;
 import okhttp3.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class QdrantClient {
-    private static final String QDRANT_URL = "http://localhost:6333";
+
+    private static final Logger log = LoggerFactory.getLogger(QdrantClient.class);
+    // QDRANT_URL (env / -D), defaults to a local Qdrant
+    public static final String QDRANT_URL = Settings.get("QDRANT_URL", "http://localhost:6333");
     private static final OkHttpClient client = new OkHttpClient();
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    // Collections already known to exist, so the existence check runs once per process
+    private static final Set<String> knownCollections = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Boolean> textVectorCollections = new ConcurrentHashMap<>();
+
+    private static final Counter upsertedPoints = Counter.builder("jarvis.qdrant.upsert.points")
+            .description("Points written to Qdrant")
+            .register(Telemetry.meters());
+
+    /** The shared HTTP client, for callers that derive their own (e.g. with a call timeout). */
+    public static OkHttpClient httpClient() {
+        return client;
+    }
+
     // --- Core API Methods ---
 
     /**
@@ -34,24 +59,80 @@ public class QdrantClient {
     }
 
     /**
-     * Creates a new collection with specified vector parameters.
+     * @return The collection's config params ("vectors", "sparse_vectors", ...), or null if the
+     *         collection does not exist.
+     */
+    public static JsonNode collectionParams(String collectionName) throws Exception {
+        Request request = new Request.Builder()
+                .url(QDRANT_URL + "/collections/" + collectionName)
+                .get()
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 404) {
+                return null;
+            }
+            String resBody = response.body() != null ? response.body().string() : "";
+            if (!response.isSuccessful()) {
+                throw new Exception("Qdrant collection check failed: HTTP " + response.code() + " - " + resBody);
+            }
+            return mapper.readTree(resBody).at("/result/config/params");
+        }
+    }
+
+    /**
+     * @return The size of the collection's "embedding" vector, or null if the collection does not exist.
+     */
+    public static Integer vectorSize(String collectionName) throws Exception {
+        JsonNode params = collectionParams(collectionName);
+        JsonNode size = params == null ? null : params.at("/vectors/embedding/size");
+        return size == null || size.isMissingNode() ? null : size.asInt();
+    }
+
+    /**
+     * Whether the collection has the sparse "text" vector used for hybrid search. Collections
+     * created before it existed only have "embedding". Cached once the collection exists.
+     */
+    public static boolean hasTextVector(String collectionName) throws Exception {
+        Boolean known = textVectorCollections.get(collectionName);
+        if (known != null) {
+            return known;
+        }
+        JsonNode params = collectionParams(collectionName);
+        if (params == null) {
+            return false; // not created yet; ask again next time
+        }
+        boolean hasText = params.path("sparse_vectors").has("text");
+        textVectorCollections.put(collectionName, hasText);
+        return hasText;
+    }
+
+    /**
+     * Creates a new collection with specified vector parameters, stored and indexed as
+     * described by the {@link IndexProfile} from settings, plus the sparse "text" vector
+     * for lexical matches (IDF computed by Qdrant) and the {@link Tenant} payload indexes.
      */
     public static void createCollection(
             String collectionName, int vectorSize, String distanceMetric
     ) throws Exception {
+        createCollection(collectionName, vectorSize, distanceMetric, IndexProfile.fromSettings());
+    }
+
+    public static void createCollection(
+            String collectionName, int vectorSize, String distanceMetric, IndexProfile profile
+    ) throws Exception {
 
-        Map<String, Object> vectorSpec = new HashMap<>();
-        vectorSpec.put("size", vectorSize);
-        vectorSpec.put("distance", distanceMetric);
+        Map<String, Object> vectorSpec = profile.vectorParams(vectorSize, distanceMetric);
 
         Map<String, Object> vectors = new HashMap<>();
         vectors.put("embedding", vectorSpec); // <-- vector field name
 
         Map<String, Object> requestBodyMap = new HashMap<>();
         requestBodyMap.put("vectors", vectors); // <-- correct top-level key
+        requestBodyMap.put("sparse_vectors", Map.of("text", Map.of("modifier", "idf")));
 
         String jsonBody = mapper.writeValueAsString(requestBodyMap);
-        System.out.println("Creating collection with body:\n" + jsonBody);
+        log.debug("Creating collection with body: {}", jsonBody);
 
         RequestBody body = RequestBody.create(
                 jsonBody,
@@ -69,7 +150,41 @@ public class QdrantClient {
             if (!response.isSuccessful()) {
                 throw new Exception("Qdrant collection creation failed: HTTP " + response.code() + " - " + resBody);
             }
-            System.out.println("Collection '" + collectionName + "' created successfully: " + resBody);
+            log.info("Collection '{}' created: {}", collectionName, resBody);
+            textVectorCollections.put(collectionName, true);
+        }
+        createTenantIndexes(collectionName);
+    }
+
+    /**
+     * Keyword indexes on the {@link Tenant} fields. "owner" is marked as the tenant key, so
+     * Qdrant stores each owner's points together and a filtered search stays within them.
+     * Creating an index that already exists is a no-op, so this also upgrades old collections.
+     */
+    public static void createTenantIndexes(String collectionName) throws Exception {
+        createPayloadIndex(collectionName, Tenant.OWNER_FIELD, true);
+        createPayloadIndex(collectionName, Tenant.COURSE_FIELD, false);
+    }
+
+    public static void createPayloadIndex(String collectionName, String field, boolean isTenant) throws Exception {
+        Map<String, Object> schema = new HashMap<>();
+        schema.put("type", "keyword");
+        if (isTenant) schema.put("is_tenant", true);
+
+        Map<String, Object> requestBodyMap = new HashMap<>();
+        requestBodyMap.put("field_name", field);
+        requestBodyMap.put("field_schema", schema);
+
+        Request request = new Request.Builder()
+                .url(QDRANT_URL + "/collections/" + collectionName + "/index?wait=true")
+                .put(RequestBody.create(mapper.writeValueAsString(requestBodyMap), MediaType.parse("application/json")))
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                String resBody = response.body() != null ? response.body().string() : "";
+                throw new Exception("Qdrant payload index creation failed: HTTP " + response.code() + " - " + resBody);
+            }
         }
     }
 
@@ -79,58 +194,173 @@ public class QdrantClient {
      * NOTE: This is the low-level API call and assumes the collection exists.
      */
     public static void insertVector(
-            String collectionName, long id, List<Double> embedding,
+            String collectionName, long id, Embedding embedding,
             String filename, int chunkIndex, String textContent
     ) throws Exception {
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("filename", filename);
-        payload.put("chunk_index", chunkIndex);
-        payload.put("text_content", textContent);
+        insertVector(collectionName, id, embedding, filename, chunkIndex, textContent, Tenant.fromSettings());
+    }
 
-        // --- FIX STARTS HERE ---
-        // 1. Create a map to hold the named vector
-        Map<String, Object> vectorsMap = new HashMap<>();
-        
-        // 2. Use the exact name found in your schema: "embedding"
-        vectorsMap.put("embedding", embedding); 
+    /** Same as above, with the owner and course the point belongs to. */
+    public static void insertVector(
+            String collectionName, long id, Embedding embedding,
+            String filename, int chunkIndex, String textContent, Tenant tenant
+    ) throws Exception {
+        Map<String, Object> payload = VectorStore.chunkPayload(filename, chunkIndex, textContent);
+        tenant.putInto(payload);
+        byte[] point = serializePoint(id, embedding.values(), payload);
+        upsertPoints(collectionName, Collections.singletonList(point), true);
+    }
 
-        Map<String, Object> pointObj = new HashMap<>();
+    public static byte[] serializePoint(long id, float[] vector, Map<String, Object> payload) throws IOException {
+        return serializePoint(id, vector, null, payload);
+    }
 
+    /**
+     * Writes the JSON for one point (named vector "embedding", the optional sparse vector
+     * "text" and the payload) with the streaming generator, so the vectors go from arrays
+     * to bytes without boxing.
+     */
+    public static byte[] serializePoint(long id, float[] vector, SparseVector sparse, Map<String, Object> payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(vector.length * 12 + 512);
+        try (JsonGenerator g = mapper.getFactory().createGenerator(out)) {
+            g.writeStartObject();
+            g.writeNumberField("id", id);
+            // Use the exact vector name found in the schema: "embedding"
+            g.writeObjectFieldStart("vectors");
+            g.writeFieldName("embedding");
+            Embedding.write(g, vector);
+            if (sparse != null) {
+                g.writeFieldName("text");
+                sparse.write(g);
+            }
+            g.writeEndObject();
+            g.writeObjectField("payload", payload);
+            g.writeEndObject();
+        }
+        return out.toByteArray();
+    }
 
-        pointObj.put("id", id);        
-        pointObj.put("vectors", vectorsMap); 
-        pointObj.put("payload", payload);
+    /**
+     * Upserts a batch of already-serialized points in one request.
+     * @param points Each element is the JSON of a single point object.
+     * @param wait If true, Qdrant only answers once the write has been applied.
+     */
+    public static void upsertPoints(String collectionName, List<byte[]> points, boolean wait) throws Exception {
+        // Stitch the pre-serialized points together instead of re-encoding them
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        json.write("{\"points\":[".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < points.size(); i++) {
+            if (i > 0) json.write(',');
+            json.write(points.get(i));
+        }
+        json.write("]}".getBytes(StandardCharsets.UTF_8));
 
-        Map<String, Object> requestBodyMap = new HashMap<>();
-        requestBodyMap.put("points", Arrays.asList(pointObj));
+        RequestBody body = RequestBody.create(json.toByteArray(), MediaType.parse("application/json"));
 
-        String jsonBody = mapper.writeValueAsString(requestBodyMap);
+        Request request = new Request.Builder()
+                .url(QDRANT_URL + "/collections/" + collectionName + "/points?wait=" + wait)
+                .put(body)
+                .build();
 
-        // Debug print (Optional)
-        // System.out.println("Sending Body: " + jsonBody);
+        Telemetry.time("jarvis.qdrant.upsert", () -> {
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    String resBody = response.body() != null ? response.body().string() : "";
+                    throw new Exception("Qdrant insertion failed: HTTP " + response.code() + " - " + resBody);
+                }
+            }
+            return null;
+        }, "wait", String.valueOf(wait));
+        upsertedPoints.increment(points.size());
+    }
+
+    /**
+     * Deletes points by ID, in batches of 1000 IDs per request.
+     * @param wait If true, Qdrant only answers once the delete has been applied.
+     */
+    public static void deletePoints(String collectionName, List<Long> ids, boolean wait) throws Exception {
+        for (int start = 0; start < ids.size(); start += 1000) {
+            Map<String, Object> requestBodyMap = new HashMap<>();
+            requestBodyMap.put("points", ids.subList(start, Math.min(start + 1000, ids.size())));
+
+            RequestBody body = RequestBody.create(
+                    mapper.writeValueAsString(requestBodyMap),
+                    MediaType.parse("application/json")
+            );
+
+            Request request = new Request.Builder()
+                    .url(QDRANT_URL + "/collections/" + collectionName + "/points/delete?wait=" + wait)
+                    .post(body)
+                    .build();
+
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    String resBody = response.body() != null ? response.body().string() : "";
+                    throw new Exception("Qdrant delete failed: HTTP " + response.code() + " - " + resBody);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets {@code payload} fields on every point that has no {@code missingField} yet
+     * (POST /points/payload with an is_empty filter); other payload fields are kept.
+     */
+    public static void setPayloadWhereEmpty(String collectionName, Map<String, Object> payload, String missingField) throws Exception {
+        Map<String, Object> requestBodyMap = new HashMap<>();
+        requestBodyMap.put("payload", payload);
+        requestBodyMap.put("filter", Map.of("must", List.of(Map.of("is_empty", Map.of("key", missingField)))));
 
         RequestBody body = RequestBody.create(
-                jsonBody,
+                mapper.writeValueAsString(requestBodyMap),
                 MediaType.parse("application/json")
         );
 
         Request request = new Request.Builder()
-                .url(QDRANT_URL + "/collections/" + collectionName + "/points?wait=true")
-                .put(body)
+                .url(QDRANT_URL + "/collections/" + collectionName + "/points/payload?wait=true")
+                .post(body)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
-            String resBody = response.body() != null ? response.body().string() : "";
-            
             if (!response.isSuccessful()) {
-                throw new Exception("Qdrant insertion failed: HTTP " + response.code() + " - " + resBody);
+                String resBody = response.body() != null ? response.body().string() : "";
+                throw new Exception("Qdrant set payload failed: HTTP " + response.code() + " - " + resBody);
             }
-            System.out.println("Qdrant Insertion Response:\n" + resBody);
         }
     }
 
     // --- Combined/User-Facing Methods ---
 
+    /**
+     * Creates the collection if it does not exist yet. The result is cached per collection,
+     * so only the first call in a process costs a round trip.
+     * @throws IllegalStateException if the collection exists with a different vector size.
+     */
+    public static void ensureCollection(String collectionName, int vectorSize, String distanceMetric) throws Exception {
+        if (knownCollections.contains(collectionName)) {
+            return;
+        }
+        synchronized (knownCollections) {
+            if (knownCollections.contains(collectionName)) {
+                return;
+            }
+            if (!checkCollection(collectionName)) {
+                log.info("Collection '{}' not found, creating it", collectionName);
+                createCollection(collectionName, vectorSize, distanceMetric);
+            } else {
+                Integer existingSize = vectorSize(collectionName);
+                if (existingSize != null && existingSize != vectorSize) {
+                    throw new IllegalStateException("Collection '" + collectionName + "' holds " + existingSize
+                            + "-dimensional vectors, not " + vectorSize + "; migrate it with EmbeddingMigration"
+                            + " or point COLLECTION_NAME at another collection");
+                }
+                // Collections created before the tenant fields existed
+                createTenantIndexes(collectionName);
+            }
+            knownCollections.add(collectionName);
+        }
+    }
+
     /**
      * Public user-facing method that ensures the collection exists before inserting the vector.
      * @param collectionName The name of the collection.
@@ -144,54 +374,158 @@ public class QdrantClient {
      */
     public static void upsertVectorWithCollectionCheck(
             String collectionName, int vectorSize, String distanceMetric,
-            long id, List<Double> embedding, String filename, int chunkIndex, String textContent
+            long id, Embedding embedding, String filename, int chunkIndex, String textContent
     ) throws Exception {
-        if (!checkCollection(collectionName)) {
-            System.out.println("Collection '" + collectionName + "' not found. Attempting to create it...");
-            createCollection(collectionName, vectorSize, distanceMetric);
-        }
+        ensureCollection(collectionName, vectorSize, distanceMetric);
         // Now that the collection is guaranteed to exist, perform the insertion
         insertVector(collectionName, id, embedding, filename, chunkIndex, textContent);
     }
 
     /**
-     * Performs a similarity search on a collection.
-     * @param collectionName The collection to search.
-     * @param queryEmbedding The vector to search with.
-     * @param limit The maximum number of results to return.
-     * @return The raw JSON response string from Qdrant.
-     * @throws Exception if the search fails.
+     * Buffers points and writes them to Qdrant in batches. A batch is flushed when it reaches
+     * the configured point count or byte size, or when the flush interval elapses.
+     * Intermediate flushes use wait=false; {@link #checkpoint()} and {@link #close()} use
+     * wait=true, so everything added before them has been applied when they return.
      */
-    public static String search(
-            String collectionName, List<Double> queryEmbedding, int limit
-    ) throws Exception {
-        
-        Map<String, Object> requestBodyMap = new HashMap<>();
-        requestBodyMap.put("vector", queryEmbedding);
-        requestBodyMap.put("limit", limit);
-        requestBodyMap.put("with_payload", true); // Include metadata in results
+    public static class BulkWriter implements VectorStore.Writer {
+        private final String collectionName;
+        private final boolean sparseVectors; // whether the collection has the "text" vector
+        private final int maxPoints;
+        private final long maxBytes;
+        private final ScheduledExecutorService timer;
+
+        private List<byte[]> buffer = new ArrayList<>();
+        private long bufferedBytes = 0;
+        private long written = 0;
+        private byte[] lastUnwaitedPoint; // last point sent with wait=false since the last checkpoint
+        private volatile Exception failure; // error from a timer-triggered flush
+
+        /**
+         * Creates a writer with batch limits taken from QDRANT_BATCH_POINTS,
+         * QDRANT_BATCH_BYTES and QDRANT_FLUSH_INTERVAL_MS.
+         */
+        public BulkWriter(String collectionName, int vectorSize, String distanceMetric) throws Exception {
+            this(collectionName, vectorSize, distanceMetric,
+                    Settings.getInt("QDRANT_BATCH_POINTS", 256),
+                    Settings.getLong("QDRANT_BATCH_BYTES", 8L * 1024 * 1024),
+                    Settings.getLong("QDRANT_FLUSH_INTERVAL_MS", 2000));
+        }
 
-        String jsonBody = mapper.writeValueAsString(requestBodyMap);
-        
-        System.out.println("Search Request Body:\n" + jsonBody);
+        public BulkWriter(
+                String collectionName, int vectorSize, String distanceMetric,
+                int maxPoints, long maxBytes, long flushIntervalMs
+        ) throws Exception {
+            ensureCollection(collectionName, vectorSize, distanceMetric);
+            this.collectionName = collectionName;
+            this.sparseVectors = hasTextVector(collectionName);
+            this.maxPoints = maxPoints;
+            this.maxBytes = maxBytes;
+
+            if (flushIntervalMs > 0) {
+                this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "qdrant-bulk-flush");
+                    t.setDaemon(true);
+                    return t;
+                });
+                this.timer.scheduleWithFixedDelay(() -> {
+                    try {
+                        flush(false);
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            } else {
+                this.timer = null;
+            }
+        }
 
-        RequestBody body = RequestBody.create(
-                jsonBody,
-                MediaType.parse("application/json")
-        );
+        public void add(long id, Embedding embedding, String filename, int chunkIndex, String textContent) throws Exception {
+            add(id, embedding.values(), VectorStore.chunkPayload(filename, chunkIndex, textContent));
+        }
 
-        Request request = new Request.Builder()
-                .url(QDRANT_URL + "/collections/" + collectionName + "/points/search") 
-                .post(body)
-                .build();
+        @Override
+        public void add(long id, float[] vector, Map<String, Object> payload) throws Exception {
+            add(serializePoint(id, vector, payload));
+        }
 
-        try (Response response = client.newCall(request).execute()) {
-            String resBody = response.body() != null ? response.body().string() : "";
-            
-            if (!response.isSuccessful()) {
-                throw new Exception("Qdrant search failed: HTTP " + response.code() + " - " + resBody);
+        @Override
+        public void add(long id, float[] vector, SparseVector sparse, Map<String, Object> payload) throws Exception {
+            // Qdrant rejects vector names the collection doesn't have; an empty one adds nothing
+            boolean withSparse = sparseVectors && sparse != null && !sparse.isEmpty();
+            add(serializePoint(id, vector, withSparse ? sparse : null, payload));
+        }
+
+        /**
+         * Adds an already-serialized point, flushing first if it would overflow the byte limit.
+         */
+        public synchronized void add(byte[] point) throws Exception {
+            rethrowFailure();
+            if (!buffer.isEmpty() && bufferedBytes + point.length > maxBytes) {
+                flush(false);
+            }
+            buffer.add(point);
+            bufferedBytes += point.length;
+            if (buffer.size() >= maxPoints || bufferedBytes >= maxBytes) {
+                flush(false);
+            }
+        }
+
+        /**
+         * Flushes the buffer and waits until Qdrant has applied every write so far.
+         */
+        @Override
+        public synchronized void checkpoint() throws Exception {
+            rethrowFailure();
+            flush(true);
+        }
+
+        /** Number of points handed to Qdrant so far. */
+        public synchronized long getWrittenCount() {
+            return written;
+        }
+
+        private synchronized void flush(boolean wait) throws Exception {
+            if (buffer.isEmpty()) {
+                if (wait && lastUnwaitedPoint != null) {
+                    // Nothing buffered, but earlier wait=false batches may still be applying.
+                    // Re-sending the last point (idempotent) with wait=true queues behind them.
+                    upsertPoints(collectionName, Collections.singletonList(lastUnwaitedPoint), true);
+                    lastUnwaitedPoint = null;
+                }
+                return;
+            }
+            List<byte[]> batch = buffer;
+            buffer = new ArrayList<>();
+            bufferedBytes = 0;
+            upsertPoints(collectionName, batch, wait);
+            written += batch.size();
+            lastUnwaitedPoint = wait ? null : batch.get(batch.size() - 1);
+        }
+
+        private void rethrowFailure() throws Exception {
+            Exception e = failure;
+            if (e != null) {
+                failure = null;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (timer != null) {
+                    timer.shutdown();
+                    timer.awaitTermination(1, TimeUnit.MINUTES);
+                }
+                checkpoint();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while flushing to " + collectionName);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
             }
-            return resBody;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,240 @@
+package com.jhsup.ProcessingCode;
+
+import okhttp3.*;
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.databind.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * {@link VectorStore} backed by a Qdrant collection with the named vector "embedding".
+ * Writes go through {@link QdrantClient.BulkWriter}, searches through /points/search.
+ * Searches let Qdrant apply the score threshold, ask only for the payload fields a hit
+ * needs and never for vectors, and read the response with the streaming parser.
+ * Search effort and quantization rescoring follow the {@link IndexProfile}.
+ *
+ * Hybrid searches go through /points/query: the dense and the sparse "text" candidates are
+ * prefetched and fused with reciprocal rank fusion in the same request. Collections without
+ * the sparse vector are searched dense-only. Fused scores are ranks, not similarities, so the
+ * score threshold can't be applied after fusion; instead both sides only offer points whose
+ * dense similarity passes it. The lexical side ranks, by term match, the HYBRID_LEXICAL_POOL
+ * best dense candidates above the threshold, so a keyword match can't bring in a chunk about
+ * something else.
+ *
+ * A {@link Tenant} search sends the owner/course filter with the query (and with each
+ * prefetch), which Qdrant answers from the keyword payload indexes.
+ *
+ * Settings (env / -D):
+ *   HYBRID_SEARCH            use the sparse vector when the collection has it, defaults to true
+ *   HYBRID_PREFETCH_LIMIT    candidates taken from each side before fusion, defaults to 40
+ *   HYBRID_LEXICAL_POOL      dense candidates the lexical side ranks when there is a score
+ *                            threshold, defaults to 200
+ */
+public class QdrantVectorStore implements VectorStore {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final boolean HYBRID_SEARCH = Settings.getBoolean("HYBRID_SEARCH", true);
+    private static final int HYBRID_PREFETCH_LIMIT = Settings.getInt("HYBRID_PREFETCH_LIMIT", 40);
+    private static final int HYBRID_LEXICAL_POOL = Settings.getInt("HYBRID_LEXICAL_POOL", 200);
+
+    private final String collectionName;
+    private final int vectorSize;
+    private final String distanceMetric;
+    private final OkHttpClient searchClient;
+    private final IndexProfile profile = IndexProfile.fromSettings();
+
+    public QdrantVectorStore(String collectionName, int vectorSize, String distanceMetric, OkHttpClient searchClient) {
+        this.collectionName = collectionName;
+        this.vectorSize = vectorSize;
+        this.distanceMetric = distanceMetric;
+        this.searchClient = searchClient;
+    }
+
+    @Override
+    public Writer openWriter() throws Exception {
+        return new QdrantClient.BulkWriter(collectionName, vectorSize, distanceMetric);
+    }
+
+    @Override
+    public void delete(List<Long> ids) throws Exception {
+        if (ids.isEmpty()) return;
+        QdrantClient.ensureCollection(collectionName, vectorSize, distanceMetric);
+        QdrantClient.deletePoints(collectionName, ids, true);
+    }
+
+    /**
+     * @throws IllegalArgumentException with QDRANT_TENANT_HNSW, for a search not restricted to
+     *         one owner (there is no global graph to answer it from).
+     */
+    @Override
+    public List<Hit> search(float[] query, SparseVector sparseQuery, int limit, double minScore, Tenant tenant) throws Exception {
+        if (profile.tenantHnsw() && tenant.owner() == null) {
+            throw new IllegalArgumentException("QDRANT_TENANT_HNSW is set: searches must be restricted to one owner");
+        }
+        if (!HYBRID_SEARCH || sparseQuery == null || sparseQuery.isEmpty() || !QdrantClient.hasTextVector(collectionName)) {
+            return post("/points/search", searchBody(query, limit, minScore, tenant));
+        }
+        return post("/points/query", hybridQueryBody(query, sparseQuery, limit, minScore, tenant));
+    }
+
+    // ------------------- Request bodies -------------------
+
+    /** The /points/search body for a dense query (named vector "embedding"). */
+    private byte[] searchBody(float[] query, int limit, double minScore, Tenant tenant) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(query.length * 12 + 256);
+        try (JsonGenerator g = mapper.getFactory().createGenerator(body)) {
+            g.writeStartObject();
+            g.writeObjectFieldStart("vector");
+            g.writeStringField("name", "embedding");
+            g.writeFieldName("vector");
+            Embedding.write(g, query);
+            g.writeEndObject();
+            tenant.writeFilter(g);
+            g.writeNumberField("limit", limit);
+            if (minScore != Double.NEGATIVE_INFINITY) {
+                g.writeNumberField("score_threshold", minScore);
+            }
+            Map<String, Object> params = profile.searchParams();
+            if (!params.isEmpty()) {
+                g.writeObjectField("params", params);
+            }
+            g.writeObjectField("with_payload", HIT_FIELDS);
+            g.writeBooleanField("with_vector", false);
+            g.writeEndObject();
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * The /points/query body: dense and sparse prefetches fused with RRF. With a threshold the
+     * sparse query re-ranks a thresholded dense prefetch instead of searching every point.
+     */
+    private byte[] hybridQueryBody(float[] query, SparseVector sparseQuery, int limit, double minScore, Tenant tenant) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(query.length * 12 + 512);
+        try (JsonGenerator g = mapper.getFactory().createGenerator(body)) {
+            g.writeStartObject();
+            g.writeArrayFieldStart("prefetch");
+
+            // Dense candidates, thresholded on cosine similarity
+            writeDensePrefetch(g, query, Math.max(HYBRID_PREFETCH_LIMIT, limit), minScore, tenant);
+
+            // Lexical candidates (term weights x IDF), among the dense ones above the threshold
+            g.writeStartObject();
+            if (minScore != Double.NEGATIVE_INFINITY) {
+                g.writeFieldName("prefetch");
+                writeDensePrefetch(g, query, Math.max(HYBRID_LEXICAL_POOL, limit), minScore, tenant);
+            }
+            g.writeFieldName("query");
+            sparseQuery.write(g);
+            g.writeStringField("using", "text");
+            tenant.writeFilter(g);
+            g.writeNumberField("limit", Math.max(HYBRID_PREFETCH_LIMIT, limit));
+            g.writeEndObject();
+
+            g.writeEndArray();
+            g.writeObjectFieldStart("query");
+            g.writeStringField("fusion", "rrf");
+            g.writeEndObject();
+            tenant.writeFilter(g);
+            g.writeNumberField("limit", limit);
+            g.writeObjectField("with_payload", HIT_FIELDS);
+            g.writeBooleanField("with_vector", false);
+            g.writeEndObject();
+        }
+        return body.toByteArray();
+    }
+
+    private void writeDensePrefetch(JsonGenerator g, float[] query, int limit, double minScore, Tenant tenant)
+            throws IOException {
+        g.writeStartObject();
+        g.writeFieldName("query");
+        Embedding.write(g, query);
+        g.writeStringField("using", "embedding");
+        tenant.writeFilter(g);
+        g.writeNumberField("limit", limit);
+        if (minScore != Double.NEGATIVE_INFINITY) {
+            g.writeNumberField("score_threshold", minScore);
+        }
+        Map<String, Object> params = profile.searchParams();
+        if (!params.isEmpty()) {
+            g.writeObjectField("params", params);
+        }
+        g.writeEndObject();
+    }
+
+    private List<Hit> post(String endpoint, byte[] body) throws Exception {
+        Request request = new Request.Builder()
+                .url(QdrantClient.QDRANT_URL + "/collections/" + collectionName + endpoint)
+                .post(RequestBody.create(body, MediaType.parse("application/json")))
+                .build();
+
+        return Telemetry.observe("jarvis.qdrant.search", () -> {
+            try (Response response = searchClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) throw new IOException("Search failed: " + response.body().string());
+                return readHits(response.body().byteStream());
+            }
+        }, "type", endpoint.endsWith("/query") ? "hybrid" : "dense");
+    }
+
+    /**
+     * Reads {"result": [{"id", "score", "payload"}, ...], ...} (/points/search) or
+     * {"result": {"points": [...]}, ...} (/points/query) without building a tree.
+     */
+    private static List<Hit> readHits(InputStream in) throws IOException {
+        List<Hit> hits = new ArrayList<>();
+        try (JsonParser p = mapper.getFactory().createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Search response is not a JSON object");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if (!field.equals("result")) {
+                    p.skipChildren();
+                    continue;
+                }
+                if (p.currentToken() == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String resultField = p.getCurrentName();
+                        p.nextToken();
+                        if (resultField.equals("points")) {
+                            readHitArray(p, hits);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    readHitArray(p, hits);
+                }
+            }
+        }
+        return hits;
+    }
+
+    /** Reads an array of scored points; the parser is on its START_ARRAY. */
+    private static void readHitArray(JsonParser p, List<Hit> hits) throws IOException {
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            long id = 0;
+            double score = 0;
+            Hit hit = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String hitField = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if (hitField.equals("id")) {
+                    id = p.getValueAsLong();
+                } else if (hitField.equals("score")) {
+                    score = p.getDoubleValue();
+                } else if (hitField.equals("payload") && value == JsonToken.START_OBJECT) {
+                    hit = Hit.read(p, 0, 0);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            // id and score may come after the payload
+            hits.add(hit == null
+                    ? new Hit(id, score, null, -1, 0, null)
+                    : new Hit(id, score, hit.filename(), hit.chunkIndex(), hit.page(), hit.text()));
+        }
+    }
+}
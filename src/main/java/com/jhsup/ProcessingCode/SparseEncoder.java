@@ -0,0 +1,129 @@
+package com.jhsup.ProcessingCode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * In-process lexical encoder for the sparse "text" vector: the term-frequency half of BM25.
+ * Qdrant supplies the other half, because the collection declares the sparse vector with the
+ * idf modifier and computes inverse document frequencies from the stored points.
+ *
+ * Terms are lowercase runs of letters and digits. A short letter run directly followed by a
+ * number ("CS 101", "cs-101") also yields the joined term "cs101", so course codes match
+ * however they are written. Common English stop words are dropped and a plain plural "s" is
+ * stripped. Term indices are 31-bit FNV-1a hashes; a rare collision only merges two terms.
+ *
+ * Settings (env / -D):
+ *   BM25_K1              term-frequency saturation, defaults to 1.2
+ *   BM25_B               chunk length normalization, defaults to 0.75
+ *   BM25_AVG_DOC_TERMS   typical chunk length in terms, defaults to 150
+ */
+public class SparseEncoder {
+
+    private static final double K1 = Settings.getDouble("BM25_K1", 1.2);
+    private static final double B = Settings.getDouble("BM25_B", 0.75);
+    private static final double AVG_DOC_TERMS = Settings.getDouble("BM25_AVG_DOC_TERMS", 150);
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "can", "do", "does", "for", "from",
+            "has", "have", "how", "i", "if", "in", "into", "is", "it", "its", "me", "my", "not", "of",
+            "on", "or", "so", "such", "that", "the", "their", "then", "there", "these", "this", "to",
+            "was", "we", "what", "when", "where", "which", "who", "why", "will", "with", "you", "your");
+
+    /** BM25 term-frequency weights for a stored chunk. */
+    public static SparseVector encodeDocument(String text) {
+        List<String> terms = terms(text);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (String term : terms) {
+            counts.merge(index(term), 1, Integer::sum);
+        }
+        double lengthNorm = K1 * (1 - B + B * terms.size() / AVG_DOC_TERMS);
+        return toVector(counts, tf -> (float) (tf * (K1 + 1) / (tf + lengthNorm)));
+    }
+
+    /** Weight 1 per distinct query term; Qdrant multiplies in the IDF. */
+    public static SparseVector encodeQuery(String text) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (String term : terms(text)) {
+            counts.put(index(term), 1);
+        }
+        return toVector(counts, tf -> 1f);
+    }
+
+    private interface Weight {
+        float of(int termFrequency);
+    }
+
+    private static SparseVector toVector(Map<Integer, Integer> counts, Weight weight) {
+        int[] indices = new int[counts.size()];
+        int n = 0;
+        for (Integer index : counts.keySet()) {
+            indices[n++] = index;
+        }
+        Arrays.sort(indices);
+        float[] values = new float[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            values[i] = weight.of(counts.get(indices[i]));
+        }
+        return new SparseVector(indices, values);
+    }
+
+    /** The terms of a text as they are indexed, in order, stop words removed. */
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        String previousLetters = null; // a short letter run that a number may attach to
+        int previousEnd = -2;
+
+        int i = 0;
+        while (i < lower.length()) {
+            if (!Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+            }
+            String token = lower.substring(start, i);
+
+            boolean number = isDigits(token);
+            if (number && previousLetters != null && start - previousEnd <= 1 && token.length() <= 4) {
+                terms.add(previousLetters + token); // "cs 101" -> cs101
+            }
+            previousLetters = !number && token.length() <= 5 && isLetters(token) && !STOP_WORDS.contains(token) ? token : null;
+            previousEnd = i;
+
+            if (STOP_WORDS.contains(token)) continue;
+            if (token.length() > 3 && token.endsWith("s") && !token.endsWith("ss") && isLetters(token)) {
+                token = token.substring(0, token.length() - 1);
+            }
+            terms.add(token);
+        }
+        return terms;
+    }
+
+    private static boolean isDigits(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isLetters(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isLetter(token.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /** 32-bit FNV-1a of the UTF-8 bytes, masked to a non-negative int. */
+    private static int index(String term) {
+        int hash = 0x811C9DC5;
+        for (byte b : term.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash & 0x7FFFFFFF;
+    }
+}
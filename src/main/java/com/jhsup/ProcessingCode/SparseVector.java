@@ -0,0 +1,30 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * A sparse vector as Qdrant takes it: parallel arrays of term indices (unique, ascending)
+ * and weights. Built by {@link SparseEncoder}.
+ */
+public record SparseVector(int[] indices, float[] values) {
+
+    public boolean isEmpty() {
+        return indices.length == 0;
+    }
+
+    /** Writes {"indices": [...], "values": [...]} without boxing. */
+    public void write(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeFieldName("indices");
+        g.writeArray(indices, 0, indices.length);
+        g.writeFieldName("values");
+        g.writeStartArray(values, values.length);
+        for (float v : values) {
+            g.writeNumber(v);
+        }
+        g.writeEndArray();
+        g.writeEndObject();
+    }
+}
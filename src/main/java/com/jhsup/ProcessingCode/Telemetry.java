@@ -0,0 +1,92 @@
+package com.jhsup.ProcessingCode;
+
+import io.micrometer.common.KeyValues;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics and trace spans for the static services. Meters go to Micrometer's global
+ * registry, which Spring Boot connects to the Prometheus endpoint (/actuator/prometheus);
+ * in the command-line tools nothing is attached and recording costs next to nothing.
+ *
+ * {@link #observe} times a call as a span when the application has installed its
+ * observation registry (see TelemetryConfig) and as a plain timer otherwise. Both produce
+ * a timer of the same name with an "error" tag, so dashboards don't depend on which one ran.
+ * Stages that never run inside a request (ingestion, upserts) use {@link #time} and stay
+ * out of the traces.
+ */
+public final class Telemetry {
+
+    private static volatile ObservationRegistry observations = ObservationRegistry.NOOP;
+
+    // Registering looks the meter up again on every call; the tag sets are few, so keep them
+    private record TimerKey(String name, List<String> tags, String error) {}
+    private static final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
+    private Telemetry() {
+    }
+
+    /** A call that may throw, like the bulkhead and dependency calls it wraps. */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws Exception;
+    }
+
+    public static void useObservationRegistry(ObservationRegistry registry) {
+        observations = registry;
+    }
+
+    public static MeterRegistry meters() {
+        return Metrics.globalRegistry;
+    }
+
+    /**
+     * Runs the call in a span (a child of the current one, e.g. the /api/ask request) and times it.
+     * @param tags Low-cardinality key/value pairs.
+     */
+    public static <T> T observe(String name, Call<T> call, String... tags) throws Exception {
+        ObservationRegistry registry = observations;
+        if (registry.isNoop()) {
+            return time(name, call, tags);
+        }
+        // Starts the span, makes it current for the call, records a failure and stops it
+        return Observation.createNotStarted(name, registry)
+                .lowCardinalityKeyValues(KeyValues.of(tags))
+                .observeChecked(call::call);
+    }
+
+    /** Times the call without a span. */
+    public static <T> T time(String name, Call<T> call, String... tags) throws Exception {
+        long start = System.nanoTime();
+        Exception failure = null;
+        try {
+            return call.call();
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            record(name, start, failure, tags);
+        }
+    }
+
+    /**
+     * Records a timing that doesn't fit a single call, e.g. a request answered asynchronously.
+     * @param startNanos From {@link System#nanoTime()}.
+     * @param failure Null on success.
+     */
+    public static void record(String name, long startNanos, Throwable failure, String... tags) {
+        String error = failure == null ? "none" : failure.getClass().getSimpleName();
+        Timer timer = timers.computeIfAbsent(new TimerKey(name, List.of(tags), error),
+                key -> Timer.builder(name).tags(Tags.of(tags).and("error", error)).register(meters()));
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
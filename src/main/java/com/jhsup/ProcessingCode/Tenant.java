@@ -0,0 +1,84 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Whose notes a point belongs to: the account that owns the document and, optionally, the
+ * course (the Drive folder or a name given at ingestion). Both are written to the point
+ * payload as "owner" and "course" and indexed as keyword fields, so a search restricted to
+ * one tenant only visits that tenant's points. A null field matches everything, so
+ * {@link #ANY} searches the whole collection (maintenance tools only; the API always searches
+ * as the signed-in account).
+ *
+ * Settings (env / -D), for sources that don't carry their own tenant (folder runs); without
+ * INGEST_OWNER a folder's chunks belong to no account and the API never returns them:
+ *   INGEST_OWNER    owner (account email) written with every chunk, unset by default
+ *   INGEST_COURSE   course written with every chunk, unset by default
+ *
+ * Points written before this field existed have no owner, so the API doesn't return them
+ * either. Run {@link TenantBackfill} with INGEST_OWNER set once after upgrading to assign
+ * them to that account; later ingestion runs rewrite any file whose tenant changed.
+ */
+public record Tenant(String owner, String course) {
+
+    public static final String OWNER_FIELD = "owner";
+    public static final String COURSE_FIELD = "course";
+
+    public static final Tenant ANY = new Tenant(null, null);
+
+    /** Blank values count as unset. */
+    public static Tenant of(String owner, String course) {
+        return new Tenant(blankToNull(owner), blankToNull(course));
+    }
+
+    public static Tenant fromSettings() {
+        return of(Settings.get("INGEST_OWNER", null), Settings.get("INGEST_COURSE", null));
+    }
+
+    public boolean isAny() {
+        return owner == null && course == null;
+    }
+
+    /** Adds the set fields to a point payload. */
+    public void putInto(Map<String, Object> payload) {
+        if (owner != null) payload.put(OWNER_FIELD, owner);
+        if (course != null) payload.put(COURSE_FIELD, course);
+    }
+
+    /** Whether a point with these payload values belongs to this tenant. */
+    public boolean matches(String pointOwner, String pointCourse) {
+        return (owner == null || owner.equals(pointOwner)) && (course == null || course.equals(pointCourse));
+    }
+
+    /** Writes the Qdrant "filter" field for this tenant; nothing for {@link #ANY}. */
+    public void writeFilter(JsonGenerator g) throws IOException {
+        if (isAny()) return;
+        g.writeObjectFieldStart("filter");
+        g.writeArrayFieldStart("must");
+        if (owner != null) writeMatch(g, OWNER_FIELD, owner);
+        if (course != null) writeMatch(g, COURSE_FIELD, course);
+        g.writeEndArray();
+        g.writeEndObject();
+    }
+
+    /** Separates cached answers and in-flight questions of different tenants. */
+    public String cacheKey() {
+        return (owner == null ? "" : owner) + "/" + (course == null ? "" : course);
+    }
+
+    private static void writeMatch(JsonGenerator g, String field, String value) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("key", field);
+        g.writeObjectFieldStart("match");
+        g.writeStringField("value", value);
+        g.writeEndObject();
+        g.writeEndObject();
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
@@ -0,0 +1,59 @@
+package com.jhsup.ProcessingCode;
+
+import java.util.*;
+
+/**
+ * Tags points written before they carried a {@link Tenant} with INGEST_OWNER (and
+ * INGEST_COURSE, if set), so an upgraded deployment keeps answering from its existing notes.
+ * Only points without an "owner" are touched (one POST /points/payload, no re-embedding), and
+ * the manifest entries that recorded no tenant are updated to match, so the next ingestion run
+ * doesn't write those files again.
+ *
+ * Qdrant only: with VECTOR_STORE=embedded, re-run ingestion with INGEST_OWNER set instead (a
+ * tenant change counts as a change, see {@link IngestionPipeline}).
+ *
+ * Usage: INGEST_OWNER=you@example.com TenantBackfill [collection]
+ *   the collection defaults to COLLECTION_NAME
+ */
+public class TenantBackfill {
+
+    public static void main(String[] args) throws Exception {
+        String collection = args.length > 0 ? args[0] : Settings.get("COLLECTION_NAME", "class_notes");
+        Tenant tenant = Tenant.fromSettings();
+        if (tenant.owner() == null) {
+            System.out.println("Set INGEST_OWNER to the account the existing notes belong to.");
+            return;
+        }
+        if (!Settings.get("VECTOR_STORE", "qdrant").equalsIgnoreCase("qdrant")) {
+            System.out.println("The embedded index is re-tagged by running ingestion again with INGEST_OWNER set.");
+            return;
+        }
+        if (!QdrantClient.checkCollection(collection)) {
+            throw new IllegalArgumentException("Collection '" + collection + "' does not exist");
+        }
+
+        // --- Step 1: Tag the points that have no owner ---
+        Map<String, Object> payload = new HashMap<>();
+        tenant.putInto(payload);
+        QdrantClient.createTenantIndexes(collection);
+        QdrantClient.setPayloadWhereEmpty(collection, payload, Tenant.OWNER_FIELD);
+        System.out.println("Tagged points without an owner in '" + collection + "' with " + payload);
+
+        // --- Step 2: Record the tenant in the manifest ---
+        IngestionManifest manifest = IngestionManifest.load(Settings.get("INGEST_MANIFEST", "./ingest_manifest.json"));
+        int updated = 0;
+        for (Map.Entry<String, IngestionManifest.Entry> e : manifest.entries().entrySet()) {
+            IngestionManifest.Entry entry = e.getValue();
+            if (entry.tenant().isAny()) {
+                manifest.put(e.getKey(), new IngestionManifest.Entry(
+                        entry.size(), entry.mtime(), entry.sha256(), entry.pointIds(), tenant));
+                updated++;
+            }
+        }
+        manifest.save();
+        System.out.println("Recorded the tenant for " + updated + " files in the manifest");
+
+        // Cached answers were built without these points
+        IndexVersion.bump();
+    }
+}
@@ -6,16 +6,14 @@ import java.util.*;
 
 public class TestSearch {
 
-    private static final String API_KEY = System.getenv("OPENAI_KEY");
-    private static final String QDRANT_URL = "http://localhost:6333";
+    private static final String API_KEY = Settings.get("OPENAI_KEY", null);
+    private static final String QDRANT_URL = QdrantClient.QDRANT_URL;
     private static final OkHttpClient client = new OkHttpClient();
     private static final ObjectMapper mapper = new ObjectMapper();
 
     // 1. Helper to get embedding for the query text (Same as before)
-    public static List<Double> getEmbedding(String text) throws Exception {
-        Map<String, Object> json = new HashMap<>();
-        json.put("input", text);
-        json.put("model", "text-embedding-3-small");
+    public static Embedding getEmbedding(String text) throws Exception {
+        Map<String, Object> json = EmbeddingService.requestBody(text);
 
         RequestBody body = RequestBody.create(
                 mapper.writeValueAsString(json),
@@ -23,23 +21,21 @@ public class TestSearch {
         );
 
         Request request = new Request.Builder()
-                .url("https://api.openai.com/v1/embeddings")
+                .url(EmbeddingService.OPENAI_BASE_URL + "/embeddings")
                 .post(body)
                 .addHeader("Authorization", "Bearer " + API_KEY)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
             if (!response.isSuccessful()) throw new Exception("OpenAI Error: " + response.body().string());
-            Map<String, Object> res = mapper.readValue(response.body().string(), Map.class);
-            List<Map<String, Object>> data = (List<Map<String, Object>>) res.get("data");
-            return (List<Double>) data.get(0).get("embedding");
+            return Embedding.parseResponse(response.body().byteStream(), 1)[0];
         }
     }
 
     // 2. The Search Logic
     public static void searchQdrant(String collectionName, String queryText) throws Exception {
         System.out.println("Generating embedding for query: \"" + queryText + "\"...");
-        List<Double> queryVector = getEmbedding(queryText);
+        Embedding queryVector = getEmbedding(queryText);
 
         // Construct the Search Request Body
         Map<String, Object> searchBody = new HashMap<>();
@@ -50,6 +46,8 @@ public class TestSearch {
         }});
         searchBody.put("limit", 10); // Return top 3 results
         searchBody.put("with_payload", true); // Show the filename/chunk info
+        Map<String, Object> params = IndexProfile.fromSettings().searchParams();
+        if (!params.isEmpty()) searchBody.put("params", params);
 
         String jsonBody = mapper.writeValueAsString(searchBody);
 
@@ -58,6 +56,7 @@ public class TestSearch {
                 .post(RequestBody.create(jsonBody, MediaType.parse("application/json")))
                 .build();
 
+        ChunkStore chunkStore = ChunkStore.open();
         System.out.println("Searching Qdrant...");
         try (Response response = client.newCall(request).execute()) {
             String resBody = response.body().string();
@@ -79,8 +78,10 @@ public class TestSearch {
             for (Map<String, Object> result : results) {
                 double score = (double) result.get("score");
                 Map<String, Object> payload = (Map<String, Object>) result.get("payload");
-                String filename = (String) payload.get("filename");
-                String chunk = (String) payload.get("text_content");
+                // The text lives in the chunk store; older points still carry it in the payload
+                ChunkStore.Chunk stored = chunkStore.get(((Number) result.get("id")).longValue());
+                String filename = stored != null ? stored.filename() : (String) payload.get("filename");
+                String chunk = stored != null ? stored.text() : (String) payload.get("text_content");
                 
                 System.out.printf("Score: %.4f | File: %s | Chunk: %s\n", score, filename,chunk);
             }
@@ -89,6 +90,6 @@ public class TestSearch {
 
     public static void main(String[] args) throws Exception {
         // Run the search
-        searchQdrant("class_notes", "reduction proofs");
+        searchQdrant(Settings.get("COLLECTION_NAME", "class_notes"), "reduction proofs");
     }
 }
\ No newline at end of file
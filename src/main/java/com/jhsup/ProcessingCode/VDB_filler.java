@@ -2,17 +2,27 @@ package com.jhsup.ProcessingCode;
 
 
 import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.Collections;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class VDB_filler{
 
+    private static final Logger log = LoggerFactory.getLogger(VDB_filler.class);
+
     public static Drive getDriveService() throws Exception {
         GoogleCredential credential = GoogleCredential
             .fromStream(new FileInputStream("./secrets/winter-flare-478606-d5-ee892e17c548.json"))
@@ -26,32 +36,328 @@ public class VDB_filler{
                 .build();
     }
 
+    // Drive MIME types we know how to ingest
+    private static final Set<String> SUPPORTED_MIME_TYPES = Set.of(
+            "application/pdf",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.google-apps.document",
+            "application/vnd.google-apps.presentation");
+
+    private static final String FILE_FIELDS = "id, name, mimeType, modifiedTime, md5Checksum, size, trashed, owners(emailAddress), parents";
+    private static final String STATE_PATH = Settings.get("DRIVE_SYNC_STATE", "./drive_sync_state.json");
+    private static final int DOWNLOAD_CONCURRENCY = Settings.getInt("DRIVE_DOWNLOAD_CONCURRENCY", 8);
+
     public static void StudyAssistant() throws Exception {
+        StudyAssistant(false);
+    }
+
+    /**
+     * Syncs Drive. The first run lists every page of matching files; later runs only read
+     * the changes feed since the saved start page token. Only new or modified files are
+     * fetched, in parallel, and files removed from Drive are removed as well. Files whose
+     * fetch failed are recorded in the state and fetched again by the next run.
+     * @param streamIngest If false, files are downloaded into downloads_/ for DocumentProcessor.
+     *                     If true, each Drive stream is piped straight into the ingestion
+     *                     pipeline and nothing is staged on disk (PDFs spill to a temp file).
+     */
+    public static void StudyAssistant(boolean streamIngest) throws Exception {
         Drive service = getDriveService();
+        DriveSyncState state = DriveSyncState.load(STATE_PATH);
 
+        List<File> toFetch = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+        String nextStartPageToken;
+
+        if (state.startPageToken == null) {
+            // Take the token before listing so nothing changed during the listing is missed
+            nextStartPageToken = service.changes().getStartPageToken().execute().getStartPageToken();
+            toFetch.addAll(listAllFiles(service, state));
+        } else {
+            nextStartPageToken = readChanges(service, state, toFetch, removedIds);
+        }
+        addRetries(service, state, toFetch, removedIds);
+
+        if (toFetch.isEmpty() && removedIds.isEmpty()) {
+            log.info("Drive is up to date, nothing to fetch.");
+        } else if (streamIngest) {
+            log.info("Streaming {} new or changed files into the ingestion pipeline", toFetch.size());
+            streamAll(service, toFetch, removedIds, state);
+        } else {
+            for (String fileId : removedIds) {
+                removeLocalCopy(fileId, state);
+            }
+            log.info("Downloading {} new or changed files", toFetch.size());
+            downloadAll(service, toFetch, state);
+        }
+
+        state.startPageToken = nextStartPageToken;
+        state.save(STATE_PATH);
+    }
+
+    /**
+     * Lists every supported file, following nextPageToken across all pages.
+     * @return The files whose version differs from the saved state.
+     */
+    private static List<File> listAllFiles(Drive service, DriveSyncState state) throws Exception {
         String query =
-            "mimeType='application/pdf' or " +
+            "(mimeType='application/pdf' or " +
             "mimeType='application/vnd.openxmlformats-officedocument.wordprocessingml.document' or " +
             "mimeType='application/vnd.openxmlformats-officedocument.presentationml.presentation' or " +
             "mimeType='application/vnd.google-apps.document' or " +
-            "mimeType='application/vnd.google-apps.presentation'";
+            "mimeType='application/vnd.google-apps.presentation') and trashed=false";
 
-        FileList result = service.files().list()
-                .setQ(query)
-                .setFields("nextPageToken, files(id, name, mimeType)")
-                .setPageSize(1000)
-                .execute();
+        List<File> changed = new ArrayList<>();
+        int seen = 0;
+        String pageToken = null;
+        do {
+            FileList result = service.files().list()
+                    .setQ(query)
+                    .setFields("nextPageToken, files(" + FILE_FIELDS + ")")
+                    .setPageSize(1000)
+                    .setPageToken(pageToken)
+                    .execute();
 
-        if (result.getFiles().isEmpty()) {
-            System.out.println("No files found. Check sharing and permissions.");
-        } else {
             for (File file : result.getFiles()) {
-                System.out.println(file.getName() + " | " + file.getMimeType() + " | " + file.getId());
-                downloadFile(service, file);
+                seen++;
+                if (state.isChanged(file.getId(), modifiedTime(file), file.getMd5Checksum())) {
+                    changed.add(file);
+                }
+            }
+            pageToken = result.getNextPageToken();
+        } while (pageToken != null);
+
+        if (seen == 0) {
+            log.warn("No files found. Check sharing and permissions.");
+        }
+        return changed;
+    }
+
+    /**
+     * Reads the changes feed from the saved token. IDs of removed or trashed files we had
+     * synced go to {@code removedIds}; new or modified supported files go to {@code toDownload}.
+     * @return The token to start from next time.
+     */
+    private static String readChanges(
+            Drive service, DriveSyncState state, List<File> toDownload, List<String> removedIds
+    ) throws Exception {
+        Map<String, File> latest = new LinkedHashMap<>(); // a file can appear several times in the feed
+        String pageToken = state.startPageToken;
+        String newStartPageToken = null;
+
+        while (pageToken != null) {
+            ChangeList changes = service.changes().list(pageToken)
+                    .setFields("nextPageToken, newStartPageToken, changes(fileId, removed, file(" + FILE_FIELDS + "))")
+                    .setPageSize(1000)
+                    .setIncludeRemoved(true)
+                    .setSpaces("drive")
+                    .execute();
+
+            for (Change change : changes.getChanges()) {
+                File file = change.getFile();
+                boolean gone = Boolean.TRUE.equals(change.getRemoved())
+                        || file == null
+                        || Boolean.TRUE.equals(file.getTrashed());
+                latest.put(change.getFileId(), gone ? null : file);
+            }
+            if (changes.getNewStartPageToken() != null) {
+                newStartPageToken = changes.getNewStartPageToken();
+            }
+            pageToken = changes.getNextPageToken();
+        }
+
+        for (Map.Entry<String, File> entry : latest.entrySet()) {
+            File file = entry.getValue();
+            if (file == null || !SUPPORTED_MIME_TYPES.contains(file.getMimeType())) {
+                if (state.files.containsKey(entry.getKey())) {
+                    removedIds.add(entry.getKey());
+                }
+            } else if (state.isChanged(file.getId(), modifiedTime(file), file.getMd5Checksum())) {
+                toDownload.add(file);
+            }
+        }
+        return newStartPageToken;
+    }
+
+    /**
+     * Adds the files whose fetch failed on an earlier run to {@code toFetch}, with their current
+     * metadata. Ones that have since been deleted, trashed or converted to an unsupported type
+     * go to {@code removedIds} if they were synced before, and are no longer retried.
+     */
+    private static void addRetries(
+            Drive service, DriveSyncState state, List<File> toFetch, List<String> removedIds
+    ) throws IOException {
+        Set<String> queued = new HashSet<>(removedIds);
+        for (File file : toFetch) {
+            queued.add(file.getId());
+        }
+        for (String fileId : new ArrayList<>(state.retryIds)) {
+            if (queued.contains(fileId)) continue;
+            File file;
+            try {
+                file = service.files().get(fileId).setFields(FILE_FIELDS).execute();
+            } catch (GoogleJsonResponseException e) {
+                if (e.getStatusCode() != 404) throw e;
+                file = null;
+            }
+            if (file == null || Boolean.TRUE.equals(file.getTrashed()) || !SUPPORTED_MIME_TYPES.contains(file.getMimeType())) {
+                state.retryIds.remove(fileId);
+                if (state.files.containsKey(fileId)) {
+                    removedIds.add(fileId);
+                }
+            } else {
+                toFetch.add(file);
+            }
+        }
+        if (!state.retryIds.isEmpty()) {
+            log.info("Retrying {} files that failed on an earlier run", state.retryIds.size());
+        }
+    }
+
+    private static void removeLocalCopy(String fileId, DriveSyncState state) {
+        state.retryIds.remove(fileId);
+        DriveSyncState.SyncedFile synced = state.files.remove(fileId);
+        if (synced != null && synced.localPath() != null && new java.io.File(synced.localPath()).delete()) {
+            log.info("Removed local copy of deleted file: {}", synced.name());
+        }
+    }
+
+    /**
+     * Downloads files on a bounded pool of DRIVE_DOWNLOAD_CONCURRENCY threads.
+     * A failed download is reported and recorded in {@link DriveSyncState#retryIds}, so the next
+     * run retries it.
+     */
+    private static void downloadAll(Drive service, List<File> files, DriveSyncState state) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(DOWNLOAD_CONCURRENCY);
+        try {
+            List<Future<?>> downloads = new ArrayList<>();
+            for (File file : files) {
+                downloads.add(pool.submit(() -> {
+                    java.io.File output = downloadFile(service, file);
+                    state.files.put(file.getId(), new DriveSyncState.SyncedFile(
+                            file.getName(), file.getMimeType(), modifiedTime(file),
+                            file.getMd5Checksum(), output.getPath()));
+                    state.retryIds.remove(file.getId());
+                    log.info("Downloaded {} | {} | {}", file.getName(), file.getMimeType(), file.getId());
+                    return null;
+                }));
+            }
+            for (int i = 0; i < downloads.size(); i++) {
+                try {
+                    downloads.get(i).get();
+                } catch (ExecutionException e) {
+                    state.retryIds.add(files.get(i).getId());
+                    log.warn("Error downloading {}", files.get(i).getName(), e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Ingests Drive files without writing them to downloads_/. The pipeline's extraction
+     * workers open the Drive streams, so fetches run in parallel with parsing.
+     * Each file's points are tagged with its owner and the folder it is in (see {@link Tenant}).
+     */
+    private static void streamAll(Drive service, List<File> files, List<String> removedIds, DriveSyncState state) throws Exception {
+        List<DriveSource> sources = new ArrayList<>();
+        Map<String, String> folderNames = new HashMap<>();
+        for (File file : files) {
+            sources.add(new DriveSource(service, file, tenantOf(service, file, folderNames)));
+        }
+        List<String> removedKeys = new ArrayList<>();
+        for (String fileId : removedIds) {
+            removedKeys.add(DriveSource.KEY_PREFIX + fileId);
+        }
+
+        IngestionPipeline pipeline = DocumentProcessor.newPipeline();
+        pipeline.run(sources, removedKeys);
+
+        for (String fileId : removedIds) {
+            state.files.remove(fileId);
+            state.retryIds.remove(fileId);
+        }
+        for (DriveSource source : sources) {
+            File file = source.file();
+            if (pipeline.getFailedKeys().contains(source.key())) {
+                state.retryIds.add(file.getId()); // the changes feed won't list it again
+            } else {
+                state.files.put(file.getId(), new DriveSyncState.SyncedFile(
+                        file.getName(), file.getMimeType(), modifiedTime(file), file.getMd5Checksum(), null));
+                state.retryIds.remove(file.getId());
+            }
+        }
+        log.info("Ingested {} chunks from {} files", pipeline.getChunksWritten(), pipeline.getFilesProcessed());
+    }
+
+    /**
+     * The file's owner (first owner's address) and course (name of its folder). Files in
+     * shared drives have no owner; they, and anything the lookup can't resolve, fall back
+     * to INGEST_OWNER / INGEST_COURSE.
+     * @param folderNames Folder names by ID, so each folder is looked up once.
+     */
+    private static Tenant tenantOf(Drive service, File file, Map<String, String> folderNames) {
+        Tenant defaults = Tenant.fromSettings();
+        String owner = file.getOwners() != null && !file.getOwners().isEmpty()
+                ? file.getOwners().get(0).getEmailAddress() : null;
+        String course = null;
+        if (file.getParents() != null && !file.getParents().isEmpty()) {
+            String folderId = file.getParents().get(0);
+            course = folderNames.computeIfAbsent(folderId, id -> {
+                try {
+                    return service.files().get(id).setFields("name").execute().getName();
+                } catch (IOException e) {
+                    log.warn("Could not look up folder {}", id, e);
+                    return null;
+                }
+            });
+        }
+        return Tenant.of(owner != null ? owner : defaults.owner(), course != null ? course : defaults.course());
+    }
+
+    /** A Drive file as an ingestion source; Google Docs/Slides are exported on open. */
+    private record DriveSource(Drive service, File file, Tenant tenant) implements IngestionPipeline.Source {
+        static final String KEY_PREFIX = "drive://";
+
+        public String key() {
+            return KEY_PREFIX + file.getId();
+        }
+
+        public String filename() {
+            // The extension picks the extractor, and exported Docs/Slides don't have one
+            String extension = getExtensionFromMime(file.getMimeType());
+            String name = file.getName();
+            return name.toLowerCase().endsWith(extension) ? name : name + extension;
+        }
+
+        public long size() {
+            return file.getSize() != null ? file.getSize() : -1; // native Google files have no size
+        }
+
+        public long mtime() {
+            return file.getModifiedTime() != null ? file.getModifiedTime().getValue() : -1;
+        }
+
+        public InputStream open() throws Exception {
+            String mime = file.getMimeType();
+            if (mime.equals("application/vnd.google-apps.document")) {
+                return service.files().export(file.getId(),
+                    "application/vnd.openxmlformats-officedocument.wordprocessingml.document")
+                    .executeMediaAsInputStream();
+            } else if (mime.equals("application/vnd.google-apps.presentation")) {
+                return service.files().export(file.getId(),
+                    "application/vnd.openxmlformats-officedocument.presentationml.presentation")
+                    .executeMediaAsInputStream();
             }
+            return service.files().get(file.getId()).executeMediaAsInputStream();
         }
     }
 
+    private static String modifiedTime(File file) {
+        return file.getModifiedTime() != null ? file.getModifiedTime().toStringRfc3339() : null;
+    }
+
     public static java.io.File downloadFile(Drive service, File file) throws Exception {
         String fileId = file.getId();
         String mime = file.getMimeType();
@@ -71,27 +377,28 @@ public class VDB_filler{
         java.io.File output = new java.io.File(folder, safeName);
 
 
-        OutputStream outputStream = new FileOutputStream(output);
-
-        // Handle Google Docs → export to DOCX
-        if (mime.equals("application/vnd.google-apps.document")) {
-            service.files().export(fileId,
-                "application/vnd.openxmlformats-officedocument.wordprocessingml.document")
-                .executeMediaAndDownloadTo(outputStream);
-        }
-        // Google Slides → export to PPTX
-        else if (mime.equals("application/vnd.google-apps.presentation")) {
-            service.files().export(fileId,
-                "application/vnd.openxmlformats-officedocument.presentationml.presentation")
-                .executeMediaAndDownloadTo(outputStream);
-        }
-        // PDFs, DOCX, PPTX, etc → direct raw download
-        else {
-            service.files().get(fileId)
-                .executeMediaAndDownloadTo(outputStream);
+        // Download to a temp file first so an interrupted download never replaces a good copy
+        java.io.File partial = new java.io.File(folder, safeName + ".part");
+        try (OutputStream outputStream = new FileOutputStream(partial)) {
+            // Handle Google Docs → export to DOCX
+            if (mime.equals("application/vnd.google-apps.document")) {
+                service.files().export(fileId,
+                    "application/vnd.openxmlformats-officedocument.wordprocessingml.document")
+                    .executeMediaAndDownloadTo(outputStream);
+            }
+            // Google Slides → export to PPTX
+            else if (mime.equals("application/vnd.google-apps.presentation")) {
+                service.files().export(fileId,
+                    "application/vnd.openxmlformats-officedocument.presentationml.presentation")
+                    .executeMediaAndDownloadTo(outputStream);
+            }
+            // PDFs, DOCX, PPTX, etc → direct raw download
+            else {
+                service.files().get(fileId)
+                    .executeMediaAndDownloadTo(outputStream);
+            }
         }
-
-        outputStream.close();
+        Files.move(partial.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
         return output;
     }
 
@@ -131,7 +438,10 @@ public class VDB_filler{
     }
 
     public static void main(String[] args) throws Exception {
-        System.out.println("Starting Program...");
-        VDB_filler.StudyAssistant();
+        log.info("Starting Drive sync");
+        // --stream: ingest straight from Drive instead of staging files in downloads_/
+        boolean streamIngest = Arrays.asList(args).contains("--stream")
+                || Settings.getBoolean("DRIVE_STREAM_INGEST", false);
+        VDB_filler.StudyAssistant(streamIngest);
     }
 }
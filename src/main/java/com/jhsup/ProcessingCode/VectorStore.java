@@ -0,0 +1,141 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import okhttp3.OkHttpClient;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where chunk vectors are written to and searched from. The backend is chosen with
+ * VECTOR_STORE (env / -D):
+ *   qdrant     (default) the Qdrant REST API, see {@link QdrantVectorStore}
+ *   embedded   an in-process HNSW index persisted under VECTOR_STORE_DIR, see {@link HnswVectorStore}
+ */
+public interface VectorStore {
+
+    /**
+     * Payload fields a search needs; nothing else is requested or parsed. text_content is only
+     * present on points written before the chunk store existed.
+     */
+    List<String> HIT_FIELDS = List.of("filename", "chunk_index", "page", "text_content");
+
+    /**
+     * One search result; the score is the cosine similarity to the query, or the fused rank
+     * score for a hybrid search. The page (or slide) is 1-based, 0 if unknown.
+     */
+    record Hit(long id, double score, String filename, int chunkIndex, int page, String text) {
+
+        /**
+         * Reads the hit's payload object with the streaming parser, which must be on its
+         * START_OBJECT. Unknown fields are skipped.
+         */
+        static Hit read(JsonParser p, long id, double score) throws IOException {
+            String filename = null;
+            int chunkIndex = -1;
+            int page = 0;
+            String text = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                switch (field) {
+                    case "filename" -> filename = p.getValueAsString();
+                    case "chunk_index" -> chunkIndex = p.getValueAsInt(-1);
+                    case "page" -> page = p.getValueAsInt(0);
+                    case "text_content" -> text = p.getValueAsString();
+                    default -> p.skipChildren();
+                }
+            }
+            return new Hit(id, score, filename, chunkIndex, page, text);
+        }
+    }
+
+    /**
+     * Buffers writes. Everything added before {@link #checkpoint()} or {@link #close()}
+     * has been applied when they return.
+     */
+    interface Writer extends AutoCloseable {
+        void add(long id, float[] vector, Map<String, Object> payload) throws Exception;
+
+        /**
+         * Also stores the point's lexical vector (see {@link SparseEncoder}). Stores without a
+         * sparse index keep only the dense vector.
+         */
+        default void add(long id, float[] vector, SparseVector sparse, Map<String, Object> payload) throws Exception {
+            add(id, vector, payload);
+        }
+
+        void checkpoint() throws Exception;
+
+        /**
+         * A final {@link #checkpoint()}. Narrowed to IOException so try-with-resources never has
+         * to handle an InterruptedException; an interrupted close keeps the interrupt flag set.
+         */
+        @Override
+        void close() throws IOException;
+    }
+
+    Writer openWriter() throws Exception;
+
+    /**
+     * Deletes points by ID and waits until the delete has been applied. A store may only persist
+     * it with its next write or {@link #flush()}.
+     */
+    void delete(List<Long> ids) throws Exception;
+
+    /** Persists deletes that were only applied in memory; nothing to do for most stores. */
+    default void flush() throws Exception {
+    }
+
+    /**
+     * Hybrid search over one tenant's points (see {@link Tenant}): dense and lexical matches
+     * fused into one ranking. Stores without a sparse index, or a null or empty sparse query,
+     * search dense-only.
+     * @param minScore Every hit, lexical matches included, has at least this dense similarity.
+     *                 Double.NEGATIVE_INFINITY for no threshold.
+     * @param tenant {@link Tenant#ANY} searches the whole collection.
+     * @return Up to {@code limit} points, most similar first.
+     */
+    List<Hit> search(float[] query, SparseVector sparseQuery, int limit, double minScore, Tenant tenant) throws Exception;
+
+    /**
+     * The minimal payload the pipeline writes; the chunk text lives in the {@link ChunkStore}.
+     */
+    static Map<String, Object> chunkPayload(String filename, int chunkIndex) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("filename", filename);
+        payload.put("chunk_index", chunkIndex);
+        return payload;
+    }
+
+    /** A payload that carries the chunk text itself (points written before the chunk store). */
+    static Map<String, Object> chunkPayload(String filename, int chunkIndex, String textContent) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("filename", filename);
+        payload.put("chunk_index", chunkIndex);
+        payload.put("text_content", textContent);
+        return payload;
+    }
+
+    static VectorStore fromSettings(String collectionName, int vectorSize, String distanceMetric) {
+        return fromSettings(collectionName, vectorSize, distanceMetric, QdrantClient.httpClient());
+    }
+
+    /**
+     * @param qdrantHttp Client used for Qdrant searches (lets callers set their own timeouts).
+     */
+    static VectorStore fromSettings(String collectionName, int vectorSize, String distanceMetric, OkHttpClient qdrantHttp) {
+        String backend = Settings.get("VECTOR_STORE", "qdrant");
+        switch (backend.toLowerCase()) {
+            case "qdrant":
+                return new QdrantVectorStore(collectionName, vectorSize, distanceMetric, qdrantHttp);
+            case "embedded":
+                return HnswVectorStore.open(collectionName, vectorSize, distanceMetric);
+            default:
+                throw new IllegalArgumentException("Unknown VECTOR_STORE '" + backend + "', expected qdrant or embedded");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.jhsup;
+
+import com.jhsup.ProcessingCode.EmbeddingService;
+import com.jhsup.ProcessingCode.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of query embeddings, keyed on the normalized query text, so repeated
+ * questions skip the embeddings round trip. Entries expire after a TTL.
+ *
+ * A cache holds vectors of one embedding model and size (EMBEDDING_MODEL and
+ * EMBEDDING_DIMENSIONS, see {@link EmbeddingService}). The snapshot records both, and a
+ * snapshot taken under another model or size is not loaded, so changing either never serves
+ * vectors the collection can't be searched with.
+ *
+ * Settings (env / -D):
+ *   QUERY_CACHE_SIZE          max entries, defaults to 10000
+ *   QUERY_CACHE_TTL_MINUTES   defaults to 1440 (one day)
+ *   QUERY_CACHE_SNAPSHOT      optional file the cache is loaded from at startup and saved to at shutdown
+ */
+public class QueryEmbeddingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryEmbeddingCache.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x4A514543; // "JQEC"
+    private static final int SNAPSHOT_VERSION = 3;
+
+    private record Entry(float[] vector, long createdAt) {}
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final String model;
+    private final int dimensions;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param model      The embedding model the cached vectors come from.
+     * @param dimensions Their length; vectors of any other length are never returned.
+     */
+    public QueryEmbeddingCache(int maxEntries, long ttlMillis, String model, int dimensions) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.model = model;
+        this.dimensions = dimensions;
+        // Access order + removeEldestEntry = LRU eviction
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > QueryEmbeddingCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Builds the cache from settings and, if QUERY_CACHE_SNAPSHOT is set, warms it from
+     * the snapshot and registers a shutdown hook that writes it back.
+     */
+    public static QueryEmbeddingCache fromSettings() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(
+                Settings.getInt("QUERY_CACHE_SIZE", 10_000),
+                Settings.getLong("QUERY_CACHE_TTL_MINUTES", 1440) * 60_000L,
+                EmbeddingService.EMBEDDING_MODEL,
+                EmbeddingService.DIMENSIONS);
+
+        String snapshot = Settings.get("QUERY_CACHE_SNAPSHOT", null);
+        if (snapshot != null) {
+            Path path = Paths.get(snapshot);
+            try {
+                cache.load(path);
+            } catch (IOException e) {
+                log.warn("Could not load query cache snapshot: {}", e.getMessage());
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    cache.save(path);
+                } catch (IOException e) {
+                    log.warn("Could not save query cache snapshot: {}", e.getMessage());
+                }
+            }, "query-cache-snapshot"));
+        }
+        return cache;
+    }
+
+    /** Lowercases, applies NFKC and collapses whitespace, so trivially different spellings share an entry. */
+    public static String normalize(String query) {
+        String text = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return text.replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * @return The cached vector for this query, or null on a miss or an expired entry.
+     */
+    public float[] get(String query) {
+        String key = normalize(query);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && (System.currentTimeMillis() - entry.createdAt() > ttlMillis
+                    || entry.vector().length != dimensions)) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.vector();
+        }
+    }
+
+    public void put(String query, float[] vector) {
+        if (vector.length != dimensions) return; // not from this cache's model
+        String key = normalize(query);
+        synchronized (entries) {
+            entries.put(key, new Entry(vector, System.currentTimeMillis()));
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // ------------------- Snapshot -------------------
+
+    /**
+     * Writes all live entries to a compact binary file (temp file + atomic move). Keys are
+     * written as length-prefixed UTF-8, so a question of any length can be saved.
+     */
+    public void save(Path path) throws IOException {
+        List<Map.Entry<String, Entry>> snapshot;
+        synchronized (entries) {
+            snapshot = new ArrayList<>(entries.entrySet());
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            writeString(out, model);
+            out.writeInt(dimensions);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> e : snapshot) {
+                writeString(out, e.getKey());
+                out.writeLong(e.getValue().createdAt());
+                float[] vector = e.getValue().vector();
+                out.writeInt(vector.length);
+                for (float v : vector) {
+                    out.writeFloat(v);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads entries from a snapshot, skipping ones that have already expired. A snapshot in
+     * an older format or of another model or vector size is ignored (the cache just starts cold).
+     */
+    public void load(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a query cache snapshot: " + path);
+            }
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                log.info("Ignoring query cache snapshot in an older format: {}", path);
+                return;
+            }
+            String snapshotModel = readString(in);
+            int snapshotDimensions = in.readInt();
+            if (!snapshotModel.equals(model) || snapshotDimensions != dimensions) {
+                log.info("Ignoring query cache snapshot of {} ({} dimensions), embeddings are now {} ({} dimensions)",
+                        snapshotModel, snapshotDimensions, model, dimensions);
+                return;
+            }
+            int count = in.readInt();
+            long now = System.currentTimeMillis();
+            synchronized (entries) {
+                for (int i = 0; i < count; i++) {
+                    String key = readString(in);
+                    long createdAt = in.readLong();
+                    float[] vector = new float[in.readInt()];
+                    for (int j = 0; j < vector.length; j++) {
+                        vector[j] = in.readFloat();
+                    }
+                    if (now - createdAt <= ttlMillis) {
+                        entries.put(key, new Entry(vector, createdAt));
+                    }
+                }
+            }
+        }
+    }
+
+    // Length-prefixed UTF-8: unlike writeUTF, not limited to 64 KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,342 @@
+package com.jhsup;
+
+import com.jhsup.ProcessingCode.Settings;
+import com.jhsup.ProcessingCode.Telemetry;
+import io.micrometer.core.instrument.Counter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-flight for questions: while an answer is being computed, identical questions
+ * (same normalized text, same index generation) attach to that computation instead of
+ * starting their own, so a burst of N duplicates costs one embedding, one search and one
+ * completion. The answer is always generated as a stream; streaming subscribers get the
+ * sources and the tokens produced so far when they attach, then every new token, and
+ * plain subscribers get the full answer. A failure reaches every subscriber.
+ *
+ * Bounded two ways: a computation accepts at most COALESCE_MAX_WAITERS subscribers (further
+ * ones are rejected, to retry once the answer is cached), and a subscriber waits at most
+ * COALESCE_TIMEOUT_MS. A computation older than the timeout takes no new subscribers; the
+ * next duplicate starts a fresh one.
+ *
+ * The computation never writes to a client itself: tokens are appended to each streaming
+ * subscriber's mailbox and sent from a sender thread, one mailbox at a time per subscriber.
+ * Senders are a fixed pool of COALESCE_SENDER_THREADS shared by all subscribers, so many
+ * streaming clients don't mean as many threads; mailboxes wait their turn in its queue. A
+ * client that stops reading only holds up its own mailbox (and, while its write blocks, one
+ * sender); once it has COALESCE_SUBSCRIBER_BUFFER undelivered events it is dropped.
+ * Subscribers' futures also complete on the sender threads, so whatever the caller chains
+ * onto them (the final SSE event) doesn't run on the computation's thread either.
+ *
+ * Each subscriber's timeout is scheduled on one shared timer thread and cancelled (and
+ * removed from the timer's queue) as soon as the subscriber completes, so a finished
+ * subscriber isn't kept reachable until its timeout would have fired.
+ *
+ * Settings (env / -D):
+ *   COALESCE_MAX_WAITERS          subscribers per computation, defaults to 500
+ *   COALESCE_TIMEOUT_MS           defaults to 120000
+ *   COALESCE_SUBSCRIBER_BUFFER    undelivered events per streaming subscriber, defaults to 2048
+ *   COALESCE_SENDER_THREADS       threads sending to streaming clients, defaults to 16
+ */
+public class QuestionCoalescer {
+
+    /** Produces the answer, reporting sources and tokens to the listener as they arrive. */
+    @FunctionalInterface
+    public interface Computation {
+        String run(ChatComplete.StreamListener listener) throws Exception;
+    }
+
+    // Sends to clients; bounded, with mailboxes queueing for a free thread
+    private static final ExecutorService senders = newSenders(Settings.getInt("COALESCE_SENDER_THREADS", 16));
+
+    // Fires subscriber timeouts; cancelled timeouts are removed right away
+    private static final ScheduledThreadPoolExecutor timeouts = newTimeouts();
+
+    private final int maxWaiters;
+    private final long timeoutMillis;
+    private final int subscriberBuffer;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final Counter leaders = coalesceCounter("leader");
+    private final Counter followers = coalesceCounter("follower");
+    private final Counter rejected = coalesceCounter("rejected");
+
+    public QuestionCoalescer(int maxWaiters, long timeoutMillis, int subscriberBuffer) {
+        this.maxWaiters = maxWaiters;
+        this.timeoutMillis = timeoutMillis;
+        this.subscriberBuffer = subscriberBuffer;
+    }
+
+    public static QuestionCoalescer fromSettings() {
+        return new QuestionCoalescer(
+                Settings.getInt("COALESCE_MAX_WAITERS", 500),
+                Settings.getLong("COALESCE_TIMEOUT_MS", 120_000),
+                Settings.getInt("COALESCE_SUBSCRIBER_BUFFER", 2048));
+    }
+
+    /**
+     * Subscribes to the computation for {@code key}, starting it on {@code executor} if none
+     * is running.
+     * @param listener Receives the sources and tokens; null for a caller that only wants the answer.
+     * @return Completes with the answer, or exceptionally with the computation's failure or a
+     *         TimeoutException after COALESCE_TIMEOUT_MS.
+     * @throws RejectedExecutionException if the computation has too many subscribers, or the
+     *         executor rejects a new one.
+     */
+    public CompletableFuture<String> join(String key, ChatComplete.StreamListener listener,
+                                          Computation computation, Executor executor) {
+        Subscriber subscriber = new Subscriber(listener, subscriberBuffer);
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null || flight.isStale()) {
+                Flight started = new Flight();
+                boolean won = flight == null
+                        ? flights.putIfAbsent(key, started) == null
+                        : flights.replace(key, flight, started);
+                if (!won) continue; // someone else started one first: join theirs
+                started.attach(subscriber);
+                try {
+                    executor.execute(() -> started.run(key, computation));
+                } catch (RuntimeException e) {
+                    flights.remove(key, started);
+                    throw e;
+                }
+                leaders.increment();
+                return subscriber.result;
+            }
+            if (flight.attach(subscriber)) {
+                followers.increment();
+                return subscriber.result;
+            }
+            if (flight.isFull()) {
+                rejected.increment();
+                throw new RejectedExecutionException("Too many people are waiting for the same answer, try again shortly");
+            }
+            // It finished between the lookup and the attach: look again
+        }
+    }
+
+    /** Computations currently running. */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    /** Subscriber timeouts that are still scheduled (visible for tests). */
+    static int pendingTimeouts() {
+        return timeouts.getQueue().size();
+    }
+
+    private static ExecutorService newSenders(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "coalesce-send");
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ScheduledThreadPoolExecutor newTimeouts() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "coalesce-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static Counter coalesceCounter(String role) {
+        return Counter.builder("jarvis.coalesce.requests")
+                .tag("role", role)
+                .description("Questions that started a computation (leader), joined one (follower) or were turned away")
+                .register(Telemetry.meters());
+    }
+
+    // ------------------- One computation -------------------
+
+    @FunctionalInterface
+    private interface Delivery {
+        void deliver(ChatComplete.StreamListener listener) throws Exception;
+    }
+
+    /**
+     * One caller. Events for a streaming caller go through its mailbox and are sent by at most
+     * one sender thread at a time, in order.
+     */
+    private static final class Subscriber {
+        final ChatComplete.StreamListener listener;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        private final int capacity;
+        private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger undelivered = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean abandoned = new AtomicBoolean();
+
+        Subscriber(ChatComplete.StreamListener listener, int capacity) {
+            this.listener = listener;
+            this.capacity = capacity;
+        }
+
+        /** Whether this caller is gone (answered, failed, timed out or dropped). */
+        boolean isDone() {
+            return result.isDone() || abandoned.get();
+        }
+
+        /** Queues an event for the client; never blocks. A client that is too far behind is dropped. */
+        void offer(Delivery delivery) {
+            if (listener == null || isDone()) return;
+            if (undelivered.incrementAndGet() > capacity) {
+                abandon(new IOException("Stream client fell " + capacity + " events behind, dropped"));
+                return;
+            }
+            enqueue(() -> {
+                undelivered.decrementAndGet();
+                if (isDone()) return; // the client is gone: discard what's left
+                try {
+                    delivery.deliver(listener);
+                } catch (Exception e) {
+                    result.completeExceptionally(e); // e.g. the client disconnected
+                }
+            });
+        }
+
+        /** Completes after the events queued so far, on a sender thread. */
+        void complete(String answer) {
+            enqueue(() -> result.complete(answer));
+        }
+
+        void fail(Throwable failure) {
+            enqueue(() -> result.completeExceptionally(failure));
+        }
+
+        /**
+         * Gives up on this caller without waiting for its queued events (they are discarded),
+         * e.g. because its send is stuck. Completes on a sender thread of its own.
+         */
+        void abandon(Throwable failure) {
+            if (abandoned.compareAndSet(false, true)) {
+                senders.execute(() -> result.completeExceptionally(failure));
+            }
+        }
+
+        private void enqueue(Runnable event) {
+            mailbox.add(event);
+            if (draining.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Runnable event;
+                while ((event = mailbox.poll()) != null) {
+                    event.run();
+                }
+                draining.set(false);
+                // Something may have been queued after the last poll but before the flag was cleared
+                if (mailbox.isEmpty() || !draining.compareAndSet(false, true)) return;
+            }
+        }
+    }
+
+    private final class Flight implements ChatComplete.StreamListener {
+        private final long startedAt = System.currentTimeMillis();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private List<String> sources;
+        private boolean done;
+
+        boolean isStale() {
+            return System.currentTimeMillis() - startedAt > timeoutMillis;
+        }
+
+        synchronized boolean isFull() {
+            return !done && subscribers.size() >= maxWaiters;
+        }
+
+        /** Queues a replay of what was produced so far; false if the flight is finished or full. */
+        synchronized boolean attach(Subscriber subscriber) {
+            if (done || subscribers.size() >= maxWaiters) return false;
+            if (sources != null) {
+                List<String> replayed = sources;
+                subscriber.offer(listener -> listener.onSources(replayed));
+            }
+            if (text.length() > 0) {
+                String replayed = text.toString();
+                subscriber.offer(listener -> listener.onToken(replayed));
+            }
+            subscribers.add(subscriber);
+            ScheduledFuture<?> timeout = timeouts.schedule(
+                    () -> subscriber.abandon(new TimeoutException("No answer within " + timeoutMillis + " ms")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            subscriber.result.whenComplete((answer, failure) -> timeout.cancel(false));
+            return true;
+        }
+
+        void run(String key, Computation computation) {
+            String answer = null;
+            Throwable failure = null;
+            try {
+                answer = computation.run(this);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            // New duplicates start over (or hit the answer cache) from here on
+            flights.remove(key, this);
+            List<Subscriber> finished;
+            synchronized (this) {
+                done = true;
+                finished = new ArrayList<>(subscribers);
+                subscribers.clear();
+            }
+            for (Subscriber subscriber : finished) {
+                if (failure == null) {
+                    subscriber.complete(answer);
+                } else {
+                    subscriber.fail(failure);
+                }
+            }
+        }
+
+        // Only queue under the lock (no I/O), which keeps replays and live tokens in order
+
+        @Override
+        public synchronized void onSources(List<String> sources) {
+            this.sources = sources;
+            fanOut(listener -> listener.onSources(sources));
+        }
+
+        @Override
+        public synchronized void onToken(String token) {
+            text.append(token);
+            fanOut(listener -> listener.onToken(token));
+        }
+
+        private void fanOut(Delivery delivery) {
+            subscribers.removeIf(Subscriber::isDone);
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(delivery);
+            }
+        }
+    }
+}
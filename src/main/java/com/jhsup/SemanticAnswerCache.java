@@ -0,0 +1,142 @@
+package com.jhsup;
+
+import com.jhsup.ProcessingCode.Settings;
+import com.jhsup.ProcessingCode.Tenant;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches full answers by query embedding. A new question whose embedding is within the
+ * cosine threshold of a cached question gets that question's answer, as long as the index
+ * has not changed since the answer was produced. Answers are only shared within a tenant
+ * (see {@link Tenant}), since each was built from that tenant's notes. The files an answer
+ * was built from are kept with it, so a hit cites the same sources as the original. Evicts
+ * least-recently-used entries, entries from older index generations and entries past their TTL.
+ *
+ * Settings (env / -D):
+ *   SEMANTIC_CACHE_SIZE          max entries, defaults to 1000
+ *   SEMANTIC_CACHE_THRESHOLD     min cosine similarity for a hit, defaults to 0.95
+ *   SEMANTIC_CACHE_TTL_MINUTES   defaults to 360
+ */
+public class SemanticAnswerCache {
+
+    /** A cached answer and the files its context came from. */
+    public record Answer(String text, List<String> sources) {}
+
+    private record Entry(float[] unitVector, String tenant, Answer answer, long generation, long createdAt) {}
+
+    private final int maxEntries;
+    private final double threshold;
+    private final long ttlMillis;
+    private final LinkedHashMap<Long, Entry> entries;
+    private long nextId = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SemanticAnswerCache(int maxEntries, double threshold, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.threshold = threshold;
+        this.ttlMillis = ttlMillis;
+        // Access order + removeEldestEntry = LRU eviction
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > SemanticAnswerCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static SemanticAnswerCache fromSettings() {
+        return new SemanticAnswerCache(
+                Settings.getInt("SEMANTIC_CACHE_SIZE", 1000),
+                Settings.getDouble("SEMANTIC_CACHE_THRESHOLD", 0.95),
+                Settings.getLong("SEMANTIC_CACHE_TTL_MINUTES", 360) * 60_000L);
+    }
+
+    /**
+     * Finds the most similar cached question from the current index generation.
+     * @param tenant {@link Tenant#cacheKey()} of the tenant asking.
+     * @return Its answer, or null if none is within the threshold.
+     */
+    public Answer get(float[] queryVector, String tenant, long generation) {
+        float[] query = normalize(queryVector);
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            Long bestId = null;
+            double bestScore = threshold;
+
+            Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Entry> e = it.next();
+                Entry entry = e.getValue();
+                // The notes changed or the entry is too old: the answer may be stale
+                if (entry.generation() != generation || now - entry.createdAt() > ttlMillis) {
+                    it.remove();
+                    continue;
+                }
+                if (!entry.tenant().equals(tenant)) continue;
+                double score = dot(query, entry.unitVector());
+                if (score >= bestScore) {
+                    bestScore = score;
+                    bestId = e.getKey();
+                }
+            }
+
+            if (bestId == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entries.get(bestId).answer(); // get() also marks it recently used
+        }
+    }
+
+    public void put(float[] queryVector, String tenant, String answer, List<String> sources, long generation) {
+        Entry entry = new Entry(normalize(queryVector), tenant, new Answer(answer, List.copyOf(sources)),
+                generation, System.currentTimeMillis());
+        synchronized (entries) {
+            entries.put(nextId++, entry);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // Unit vectors make cosine similarity a plain dot product
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] unit = new float[vector.length];
+        if (norm == 0) return unit;
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) return -1;
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
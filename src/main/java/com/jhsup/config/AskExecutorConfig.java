@@ -0,0 +1,36 @@
+package com.jhsup.config;
+
+import com.jhsup.ProcessingCode.Settings;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class AskExecutorConfig {
+
+    /**
+     * Runs the RAG chain for /api/ask and /api/ask/stream, so Tomcat's request threads are
+     * handed back as soon as a question is accepted. Bounded on both threads and queue:
+     * once both are full, new questions are rejected (HTTP 503 with a Retry-After of
+     * ASK_RETRY_AFTER_SECONDS, default 5) instead of piling up.
+     *
+     * The chain's HTTP calls block, so each running question holds a platform thread. The pool
+     * is therefore kept well below Tomcat's 200 request threads: ASK_MAX_CONCURRENCY defaults
+     * to 32, the chat completion bulkhead's size (more threads would only wait on it), and
+     * further questions wait in the queue without a thread. Identical questions share one
+     * computation (see QuestionCoalescer), so they don't take a thread each either.
+     */
+    @Bean(name = "askExecutor")
+    public ThreadPoolTaskExecutor askExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Settings.getInt("ASK_MAX_CONCURRENCY", 32));
+        executor.setMaxPoolSize(Settings.getInt("ASK_MAX_CONCURRENCY", 32));
+        executor.setQueueCapacity(Settings.getInt("ASK_QUEUE_CAPACITY", 1000));
+        executor.setAllowCoreThreadTimeOut(true); // idle threads go away between bursts
+        executor.setThreadNamePrefix("ask-");
+        executor.setTaskDecorator(new ContextPropagatingTaskDecorator()); // the request's trace continues on ask- threads
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,17 @@
+package com.jhsup.config;
+
+import com.jhsup.ProcessingCode.Telemetry;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TelemetryConfig {
+
+    /**
+     * Hands Boot's observation registry (metrics + tracing) to the static services, so
+     * embedding, search and chat calls become child spans of the /api/ask request.
+     */
+    public TelemetryConfig(ObservationRegistry observationRegistry) {
+        Telemetry.useObservationRegistry(observationRegistry);
+    }
+}
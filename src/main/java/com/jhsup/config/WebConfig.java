@@ -1,6 +1,8 @@
 package com.jhsup.config;
 
+import com.jhsup.ProcessingCode.Settings;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -13,6 +15,13 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOrigins("http://localhost:5173") // Allow YOUR React app URL
                 .allowedMethods("GET", "POST", "PUT", "DELETE") // Allow these HTTP methods
                 .allowedHeaders("*")
+                .exposedHeaders("Retry-After") // read by the app when a question is turned away
                 .allowCredentials(true);
     }
-}
\ No newline at end of file
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        // Async answers can take longer than the servlet container's 30s default
+        configurer.setDefaultTimeout(Settings.getLong("ASK_TIMEOUT_MS", 180_000));
+    }
+}
@@ -0,0 +1,79 @@
+package com.jhsup.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A latency distribution for the stand-in servers, parsed from a short spec (milliseconds):
+ *   fixed:40              always 40 ms
+ *   uniform:20-80         uniform between 20 and 80 ms
+ *   lognormal:40,250      log-normal with a median of 40 ms and a p99 of 250 ms (long tail,
+ *                         the usual shape of API latency)
+ */
+public final class LatencyModel {
+
+    // z-score of the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.3263;
+
+    private final String spec;
+    private final String kind;
+    private final double a;
+    private final double b;
+
+    private LatencyModel(String spec, String kind, double a, double b) {
+        this.spec = spec;
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+    }
+
+    public static LatencyModel parse(String spec) {
+        String[] parts = spec.trim().split(":", 2);
+        String kind = parts[0].toLowerCase();
+        try {
+            switch (kind) {
+                case "fixed" -> {
+                    double ms = Double.parseDouble(parts[1]);
+                    return new LatencyModel(spec, kind, ms, ms);
+                }
+                case "uniform" -> {
+                    String[] range = parts[1].split("-");
+                    return new LatencyModel(spec, kind, Double.parseDouble(range[0]), Double.parseDouble(range[1]));
+                }
+                case "lognormal" -> {
+                    String[] values = parts[1].split(",");
+                    double median = Double.parseDouble(values[0]);
+                    double p99 = Double.parseDouble(values[1]);
+                    if (median <= 0 || p99 < median) throw new IllegalArgumentException("need 0 < median <= p99");
+                    // ln(X) ~ N(mu, sigma): the median is e^mu, the p99 is e^(mu + Z_99 * sigma)
+                    return new LatencyModel(spec, kind, Math.log(median), Math.log(p99 / median) / Z_99);
+                }
+                default -> throw new IllegalArgumentException("unknown distribution '" + kind + "'");
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Bad latency spec '" + spec
+                    + "', expected fixed:MS, uniform:MIN-MAX or lognormal:MEDIAN,P99 (" + e.getMessage() + ")", e);
+        }
+    }
+
+    /** One latency sample in milliseconds. */
+    public long sampleMillis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double ms = switch (kind) {
+            case "uniform" -> a + random.nextDouble() * (b - a);
+            case "lognormal" -> Math.exp(a + b * random.nextGaussian());
+            default -> a;
+        };
+        return Math.max(0, Math.round(ms));
+    }
+
+    /** Sleeps for one sample. */
+    public void sleep() throws InterruptedException {
+        long ms = sampleMillis();
+        if (ms > 0) Thread.sleep(ms);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
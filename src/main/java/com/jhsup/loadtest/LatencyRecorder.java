@@ -0,0 +1,70 @@
+package com.jhsup.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latencies and failures of one stage during a run and summarizes them as
+ * throughput and percentiles. Samples are kept exactly (a run is minutes, not days).
+ */
+public final class LatencyRecorder {
+
+    private final String stage;
+    private long[] nanos = new long[1024];
+    private int count = 0;
+    private int errors = 0;
+
+    public LatencyRecorder(String stage) {
+        this.stage = stage;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public synchronized void record(long elapsedNanos) {
+        if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+        nanos[count++] = elapsedNanos;
+    }
+
+    public synchronized void recordError() {
+        errors++;
+    }
+
+    /** Drops everything recorded so far, e.g. at the end of the warmup. */
+    public synchronized void reset() {
+        count = 0;
+        errors = 0;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized int getErrors() {
+        return errors;
+    }
+
+    /**
+     * One report line: successful calls, errors, successful calls per second over the
+     * measured window, and p50/p95/p99/max in milliseconds.
+     */
+    public synchronized String summary(double seconds) {
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        return String.format("%-22s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f",
+                stage, count, errors, count / seconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    public static String header() {
+        return String.format("%-22s %8s %7s %9s %9s %9s %9s %9s",
+                "stage", "ok", "errors", "per sec", "p50 ms", "p95 ms", "p99 ms", "max ms");
+    }
+
+    /** Nearest-rank percentile in milliseconds, NaN without samples. */
+    private static double percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return Double.NaN;
+        int rank = (int) Math.ceil(q * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,286 @@
+package com.jhsup.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jhsup.JarvisApplication;
+import com.jhsup.ProcessingCode.IngestionPipeline;
+import com.jhsup.ProcessingCode.Settings;
+import okhttp3.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test against local stand-ins for OpenAI and Qdrant, so the application can be sized
+ * without API costs or a populated collection. Starts {@link OpenAiStandIn} and
+ * {@link QdrantStandIn} on free ports, points OPENAI_BASE_URL and QDRANT_URL at them, then:
+ *   ask, stream   starts the Spring app in-process and sends questions to /api/ask or
+ *                 /api/ask/stream open-loop: arrivals follow the configured rate whether or
+ *                 not earlier answers have come back, and latency is measured from each
+ *                 request's scheduled start, so a backlog shows up as latency.
+ *   ingest        runs the ingestion pipeline over a folder (its concurrency follows the
+ *                 INGEST_* settings).
+ * Reports throughput and p50/p95/p99 for the client-side stages and for each dependency
+ * call as the stand-ins saw it.
+ *
+ *   mvn compile exec:java -Dexec.mainClass=com.jhsup.loadtest.LoadTest -DLOADTEST_RATE=50
+ *
+ * Settings (env / -D):
+ *   LOADTEST_MODE                  ask, stream or ingest, defaults to ask
+ *   LOADTEST_RATE                  questions per second, defaults to 20
+ *   LOADTEST_ARRIVALS              constant or poisson, defaults to poisson
+ *   LOADTEST_WARMUP_SECONDS        not measured, defaults to 10
+ *   LOADTEST_DURATION_SECONDS      measured, defaults to 60
+ *   LOADTEST_DRAIN_SECONDS         wait for answers still in flight, defaults to 60
+ *   LOADTEST_DISTINCT_QUESTIONS    questions cycle through this many texts (cache hits);
+ *                                  0 (default) makes every question different
+ *   LOADTEST_USER                  account the questions are asked as, defaults to loadtest@example.com
+ *   LOADTEST_INGEST_DIR            folder for ingest mode, defaults to ./downloads_
+ *   STANDIN_EMBEDDING_LATENCY      defaults to lognormal:60,400 (see {@link LatencyModel})
+ *   STANDIN_CHAT_LATENCY           time to first token, defaults to lognormal:700,3000
+ *   STANDIN_CHAT_TOKENS            answer length in tokens, defaults to 150
+ *   STANDIN_CHAT_TOKEN_MS          delay between streamed tokens, defaults to 15
+ *   STANDIN_QDRANT_LATENCY         defaults to lognormal:8,60
+ *   STANDIN_EMBEDDING_ERROR_RATE, STANDIN_CHAT_ERROR_RATE, STANDIN_QDRANT_ERROR_RATE
+ *                                  share of calls answered with HTTP 500, default 0
+ */
+public class LoadTest {
+
+    private static final String[] TOPICS = {
+            "mathematical reductions and NP completeness", "the Cook-Levin theorem", "reducing 3SAT to CLIQUE",
+            "vertex cover and independent set", "the SUBSET-SUM reduction", "P versus NP", "coNP and TAUTOLOGY",
+    };
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // Sent as the signed-in account, the way the authenticating proxy would
+    private static final String LOADTEST_USER = Settings.get("LOADTEST_USER", "loadtest@example.com");
+
+    public static void main(String[] args) throws Exception {
+        String mode = Settings.get("LOADTEST_MODE", "ask");
+        // Read directly: EmbeddingService must not be loaded before OPENAI_BASE_URL is set
+        int dimensions = Settings.getInt("EMBEDDING_DIMENSIONS", 1536);
+
+        // --- Stand-ins ---
+        OpenAiStandIn openAi = new OpenAiStandIn(dimensions,
+                LatencyModel.parse(Settings.get("STANDIN_EMBEDDING_LATENCY", "lognormal:60,400")),
+                Settings.getDouble("STANDIN_EMBEDDING_ERROR_RATE", 0),
+                LatencyModel.parse(Settings.get("STANDIN_CHAT_LATENCY", "lognormal:700,3000")),
+                Settings.getDouble("STANDIN_CHAT_ERROR_RATE", 0),
+                Settings.getInt("STANDIN_CHAT_TOKENS", 150),
+                Settings.getLong("STANDIN_CHAT_TOKEN_MS", 15));
+        QdrantStandIn qdrant = new QdrantStandIn(dimensions,
+                LatencyModel.parse(Settings.get("STANDIN_QDRANT_LATENCY", "lognormal:8,60")),
+                Settings.getDouble("STANDIN_QDRANT_ERROR_RATE", 0));
+        openAi.start();
+        qdrant.start();
+
+        // --- Point the application at them, with throwaway local state ---
+        Path scratch = Files.createTempDirectory("jarvis-loadtest-");
+        System.setProperty("OPENAI_BASE_URL", openAi.getUrl() + "/v1");
+        System.setProperty("OPENAI_KEY", "load-test");
+        System.setProperty("QDRANT_URL", qdrant.getUrl());
+        System.setProperty("VECTOR_STORE", "qdrant");
+        System.setProperty("CHUNK_STORE_DIR", scratch.resolve("chunk_store").toString());
+        System.setProperty("INGEST_MANIFEST", scratch.resolve("ingest_manifest.json").toString());
+        System.out.println("OpenAI stand-in at " + openAi.getUrl() + ", Qdrant stand-in at " + qdrant.getUrl()
+                + ", scratch in " + scratch);
+
+        List<LatencyRecorder> stages = new ArrayList<>();
+        double seconds;
+        try {
+            if (mode.equals("ingest")) {
+                seconds = runIngest(dimensions, stages);
+            } else if (mode.equals("ask") || mode.equals("stream")) {
+                seconds = runQuestions(mode.equals("stream"), stages, List.of(openAi, qdrant));
+            } else {
+                throw new IllegalArgumentException("Unknown LOADTEST_MODE '" + mode + "', expected ask, stream or ingest");
+            }
+        } finally {
+            openAi.close();
+            qdrant.close();
+        }
+
+        // --- Report ---
+        stages.addAll(openAi.getRecorders());
+        stages.addAll(qdrant.getRecorders());
+        System.out.println("\n=== Load test: " + mode + ", " + String.format("%.1f", seconds) + " s measured ===");
+        System.out.println(LatencyRecorder.header());
+        for (LatencyRecorder stage : stages) {
+            if (stage.getCount() > 0 || stage.getErrors() > 0) {
+                System.out.println(stage.summary(seconds));
+            }
+        }
+        System.exit(0); // the Spring context and pools are not worth a graceful shutdown
+    }
+
+    // ------------------- Ingestion -------------------
+
+    private static double runIngest(int dimensions, List<LatencyRecorder> stages) throws Exception {
+        String folder = Settings.get("LOADTEST_INGEST_DIR", "./downloads_");
+        IngestionPipeline pipeline = new IngestionPipeline(
+                Settings.get("COLLECTION_NAME", "class_notes"), dimensions, "Cosine");
+
+        long start = System.nanoTime();
+        pipeline.run(folder);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format("Ingested %d chunks from %d files in %.1f s: %.1f files/s, %.1f chunks/s",
+                pipeline.getChunksWritten(), pipeline.getFilesProcessed(), seconds,
+                pipeline.getFilesProcessed() / seconds, pipeline.getChunksWritten() / seconds));
+        return seconds;
+    }
+
+    // ------------------- Questions -------------------
+
+    private static double runQuestions(boolean stream, List<LatencyRecorder> stages, List<StandInServer> standIns)
+            throws Exception {
+        double rate = Settings.getDouble("LOADTEST_RATE", 20);
+        boolean poisson = Settings.get("LOADTEST_ARRIVALS", "poisson").equals("poisson");
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Settings.getLong("LOADTEST_WARMUP_SECONDS", 10));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Settings.getLong("LOADTEST_DURATION_SECONDS", 60));
+        long drainNanos = TimeUnit.SECONDS.toNanos(Settings.getLong("LOADTEST_DRAIN_SECONDS", 60));
+        int distinct = Settings.getInt("LOADTEST_DISTINCT_QUESTIONS", 0);
+
+        ConfigurableApplicationContext app = SpringApplication.run(JarvisApplication.class, "--server.port=0");
+        int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+        String url = "http://127.0.0.1:" + port + (stream ? "/api/ask/stream" : "/api/ask");
+
+        // Open loop: the client never limits how many questions are in flight
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Integer.MAX_VALUE);
+        dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+        OkHttpClient http = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(1000, 1, TimeUnit.MINUTES))
+                .readTimeout(drainNanos + durationNanos, TimeUnit.NANOSECONDS)
+                .build();
+
+        LatencyRecorder total = new LatencyRecorder(stream ? "ask stream (done)" : "ask");
+        LatencyRecorder firstToken = new LatencyRecorder("ask stream (1st token)");
+        stages.add(total);
+        if (stream) stages.add(firstToken);
+        AtomicInteger inFlight = new AtomicInteger();
+
+        System.out.println(String.format("Sending %.1f questions/s (%s arrivals) to %s: %d s warmup, %d s measured",
+                rate, poisson ? "poisson" : "constant", url,
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), TimeUnit.NANOSECONDS.toSeconds(durationNanos)));
+
+        // --- Arrivals ---
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        boolean measuring = false;
+        double offset = 0;
+        for (int i = 0; ; i++) {
+            long scheduled = start + (long) offset;
+            if (scheduled >= end) break;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+
+            if (!measuring && scheduled >= measureFrom) {
+                measuring = true;
+                standIns.forEach(StandInServer::resetStats);
+            }
+            int k = distinct > 0 ? i % distinct : i;
+            String question = "Create a study guide on " + TOPICS[k % TOPICS.length] + " (" + k + ")";
+            send(http, url, question, stream, scheduled, measuring ? total : null, measuring ? firstToken : null, inFlight);
+
+            double interval = 1e9 / rate;
+            offset += poisson ? -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * interval : interval;
+        }
+
+        // --- Drain ---
+        long drainUntil = System.nanoTime() + drainNanos;
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(100);
+        }
+        if (inFlight.get() > 0) {
+            System.out.println(inFlight.get() + " questions still unanswered after the drain; counted as errors");
+            for (int i = 0; i < inFlight.get(); i++) total.recordError();
+        }
+        app.close();
+        return durationNanos / 1e9;
+    }
+
+    /**
+     * Sends one question asynchronously. Latencies are measured from {@code scheduled}, not
+     * from when the request got a connection.
+     * @param total Null during the warmup.
+     */
+    private static void send(OkHttpClient http, String url, String question, boolean stream, long scheduled,
+                             LatencyRecorder total, LatencyRecorder firstToken, AtomicInteger inFlight) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .header(Settings.get("AUTH_USER_HEADER", "X-Forwarded-Email"), LOADTEST_USER)
+                .post(RequestBody.create(mapper.writeValueAsBytes(Map.of("question", question)),
+                        MediaType.parse("application/json")))
+                .build();
+
+        inFlight.incrementAndGet();
+        http.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                inFlight.decrementAndGet();
+                if (total != null) total.recordError();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    boolean ok = response.isSuccessful()
+                            && (stream ? readStream(response, scheduled, firstToken) : readAnswer(response));
+                    if (total != null) {
+                        if (ok) {
+                            total.record(System.nanoTime() - scheduled);
+                        } else {
+                            total.recordError();
+                        }
+                    }
+                } catch (IOException e) {
+                    if (total != null) total.recordError();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private static boolean readAnswer(Response response) throws IOException {
+        JsonNode answer = mapper.readTree(response.body().byteStream());
+        return answer.path("status").asText().equals("success");
+    }
+
+    /** Reads the SSE answer to the end; the first "token" event is the time to first token. */
+    private static boolean readStream(Response response, long scheduled, LatencyRecorder firstToken) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8));
+        boolean sawToken = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("event:")) continue;
+            String event = line.substring(6).trim();
+            if (event.equals("token") && !sawToken) {
+                sawToken = true;
+                if (firstToken != null) firstToken.record(System.nanoTime() - scheduled);
+            } else if (event.equals("error")) {
+                return false;
+            } else if (event.equals("done")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
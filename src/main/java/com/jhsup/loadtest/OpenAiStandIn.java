@@ -0,0 +1,134 @@
+package com.jhsup.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * Stand-in for the OpenAI endpoints the application calls:
+ *   POST /v1/embeddings         one vector per input, as numbers or base64 like the real API.
+ *                               The vector is derived from the input text, so repeated
+ *                               questions embed identically (and hit the caches) while
+ *                               different ones are far apart.
+ *   POST /v1/chat/completions   a fixed-length answer; with stream=true it is sent as
+ *                               server-sent events, one delta per token, ending with [DONE].
+ * The chat latency is the time to the first token; streamed tokens follow every tokenMillis.
+ */
+public class OpenAiStandIn extends StandInServer {
+
+    private static final String ANSWER_WORDS =
+            "Reductions map instances of a known hard problem to the new problem in polynomial time. "
+            + "To show NP-completeness, prove membership in NP with a certificate and a verifier, "
+            + "then reduce 3SAT or CLIQUE to it and argue both directions of the mapping. ";
+
+    private final int dimensions;
+    private final int answerTokens;
+    private final long tokenMillis;
+    private final Route embeddings;
+    private final Route chat;
+    private final Route chatStream;
+
+    public OpenAiStandIn(int dimensions, LatencyModel embeddingLatency, double embeddingErrorRate,
+                         LatencyModel chatLatency, double chatErrorRate, int answerTokens, long tokenMillis) {
+        super("openai");
+        this.dimensions = dimensions;
+        this.answerTokens = answerTokens;
+        this.tokenMillis = tokenMillis;
+        this.embeddings = route("openai embeddings", embeddingLatency, embeddingErrorRate);
+        this.chat = route("openai chat", chatLatency, chatErrorRate);
+        this.chatStream = route("openai chat stream", chatLatency, chatErrorRate);
+    }
+
+    @Override
+    protected Route resolve(String method, String path, JsonNode body) {
+        if (!method.equals("POST")) return null;
+        if (path.endsWith("/embeddings")) return embeddings;
+        // Timed separately, so the non-streaming chat stage isn't mixed with long streams
+        if (path.endsWith("/chat/completions")) return body.path("stream").asBoolean(false) ? chatStream : chat;
+        return null;
+    }
+
+    @Override
+    protected void handle(Route route, HttpExchange exchange, JsonNode body) throws Exception {
+        if (route == embeddings) {
+            handleEmbeddings(exchange, body);
+        } else if (route == chatStream) {
+            streamAnswer(exchange);
+        } else {
+            Map<String, Object> message = Map.of("role", "assistant", "content", answer());
+            sendJson(exchange, 200, Map.of(
+                    "object", "chat.completion",
+                    "choices", List.of(Map.of("index", 0, "message", message, "finish_reason", "stop"))));
+        }
+    }
+
+    private void handleEmbeddings(HttpExchange exchange, JsonNode body) throws Exception {
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = body.path("input");
+        if (input.isArray()) {
+            input.forEach(item -> inputs.add(item.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        int size = body.path("dimensions").asInt(dimensions);
+        boolean base64 = body.path("encoding_format").asText("float").equals("base64");
+
+        List<Map<String, Object>> data = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            float[] vector = vectorFor(inputs.get(i), size);
+            Object encoded = vector;
+            if (base64) {
+                ByteBuffer bytes = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+                bytes.asFloatBuffer().put(vector);
+                encoded = Base64.getEncoder().encodeToString(bytes.array());
+            }
+            data.add(Map.of("object", "embedding", "index", i, "embedding", encoded));
+        }
+        sendJson(exchange, 200, Map.of("object", "list", "data", data, "model", body.path("model").asText()));
+    }
+
+    /** A unit vector seeded by the text; random directions in many dimensions are nearly orthogonal. */
+    private static float[] vectorFor(String text, int size) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[size];
+        double norm = 0;
+        for (int i = 0; i < size; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < size; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private void streamAnswer(HttpExchange exchange) throws Exception {
+        String[] words = answer().split(" ");
+        try (OutputStream out = startEventStream(exchange)) {
+            for (int i = 0; i < words.length; i++) {
+                if (i > 0 && tokenMillis > 0) Thread.sleep(tokenMillis);
+                Map<String, Object> delta = Map.of("content", (i == 0 ? "" : " ") + words[i]);
+                sendEvent(out, mapper.writeValueAsString(Map.of(
+                        "object", "chat.completion.chunk",
+                        "choices", List.of(Map.of("index", 0, "delta", delta)))));
+            }
+            sendEvent(out, "[DONE]");
+        }
+    }
+
+    /** About answerTokens words of plausible study-guide text. */
+    private String answer() {
+        String[] words = ANSWER_WORDS.trim().split(" ");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < answerTokens; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(words[i % words.length]);
+        }
+        return sb.toString();
+    }
+}
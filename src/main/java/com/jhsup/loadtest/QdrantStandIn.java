@@ -0,0 +1,112 @@
+package com.jhsup.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Qdrant REST endpoints used by {@code QdrantClient}, {@code QdrantVectorStore}
+ * and {@code IndexGeneration}. Every collection exists, with the "embedding" vector of the
+ * configured size and the sparse "text" vector, so hybrid search is exercised. Searches
+ * return hits from a small set of note passages with the text in the payload; upserts and
+ * deletes are counted but not stored.
+ */
+public class QdrantStandIn extends StandInServer {
+
+    private static final String[] PASSAGES = {
+            "A <=p B if there is a polynomial-time computable function f such that w is in A if and only if f(w) is in B. "
+                    + "If B is in P then A is in P; to show B is hard, reduce a known hard problem to B.",
+            "To prove B is NP-complete: show B is in NP with a certificate and a polynomial-time verifier, pick a known "
+                    + "NP-complete problem A, give f and prove both directions, and argue that f runs in polynomial time.",
+            "3SAT <=p CLIQUE: one vertex per literal occurrence, grouped in triples by clause. Connect two vertices unless "
+                    + "they are in the same triple or are complementary literals. A k-clique picks one true literal per clause.",
+            "Cook-Levin: SAT is NP-complete. For an NTM running in time n^k, build a formula over an n^k by n^k tableau "
+                    + "that checks the start row, that every 2x3 window is legal, and that an accept state appears.",
+            "S is an independent set exactly when V \\ S is a vertex cover, and exactly when S is a clique in the complement "
+                    + "graph, so CLIQUE, INDEPENDENT-SET and VERTEX-COVER reduce to each other trivially.",
+            "SUBSET-SUM has a pseudo-polynomial dynamic program in O(n * t). This is not polynomial in the input size "
+                    + "because the target t is written in binary.",
+    };
+
+    private final int dimensions;
+    private final AtomicLong pointsCount = new AtomicLong();
+    private final Route collection;
+    private final Route search;
+    private final Route query;
+    private final Route upsert;
+    private final Route other;
+
+    public QdrantStandIn(int dimensions, LatencyModel latency, double errorRate) {
+        super("qdrant");
+        this.dimensions = dimensions;
+        // Collection info is polled for the index generation; it isn't worth failing
+        this.collection = route("qdrant collection", LatencyModel.parse("fixed:0"), 0);
+        this.search = route("qdrant search", latency, errorRate);
+        this.query = route("qdrant hybrid query", latency, errorRate);
+        this.upsert = route("qdrant upsert", latency, errorRate);
+        this.other = route("qdrant other", latency, errorRate);
+    }
+
+    @Override
+    protected Route resolve(String method, String path, JsonNode body) {
+        // /collections/{name}[/points[/search|/query|/delete|...]]
+        String[] parts = path.split("/");
+        if (parts.length < 3 || !parts[1].equals("collections")) return null;
+        if (parts.length == 3) return method.equals("GET") ? collection : other;
+        if (parts.length == 4 && parts[3].equals("points") && method.equals("PUT")) return upsert;
+        if (parts.length == 5 && parts[4].equals("search")) return search;
+        if (parts.length == 5 && parts[4].equals("query")) return query;
+        return other;
+    }
+
+    @Override
+    protected void handle(Route route, HttpExchange exchange, JsonNode body) throws Exception {
+        if (route == collection) {
+            Map<String, Object> params = Map.of(
+                    "vectors", Map.of("embedding", Map.of("size", dimensions, "distance", "Cosine")),
+                    "sparse_vectors", Map.of("text", Map.of("modifier", "idf")));
+            long points = pointsCount.get();
+            sendJson(exchange, 200, ok(Map.of(
+                    "status", "green",
+                    "points_count", points,
+                    "indexed_vectors_count", points,
+                    "segments_count", 2,
+                    "config", Map.of("params", params))));
+        } else if (route == search) {
+            sendJson(exchange, 200, ok(hits(body.path("limit").asInt(10))));
+        } else if (route == query) {
+            sendJson(exchange, 200, ok(Map.of("points", hits(body.path("limit").asInt(10)))));
+        } else if (route == upsert) {
+            pointsCount.addAndGet(body.path("points").size());
+            sendJson(exchange, 200, ok(Map.of("operation_id", 1, "status", "completed")));
+        } else if (exchange.getRequestURI().getPath().endsWith("/points/scroll")) {
+            sendJson(exchange, 200, ok(Map.of("points", List.of())));
+        } else {
+            sendJson(exchange, 200, ok(true));
+        }
+    }
+
+    private static Map<String, Object> ok(Object result) {
+        return Map.of("result", result, "status", "ok", "time", 0.001);
+    }
+
+    private static List<Map<String, Object>> hits(int limit) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int lecture = random.nextInt(1, 20);
+        int first = random.nextInt(PASSAGES.length);
+        List<Map<String, Object>> hits = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, PASSAGES.length); i++) {
+            int chunk = (first + i) % PASSAGES.length;
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("filename", "lecture" + lecture + ".pdf");
+            payload.put("chunk_index", chunk);
+            payload.put("page", chunk / 2 + 1);
+            payload.put("text_content", PASSAGES[chunk]);
+            hits.add(Map.of("id", lecture * 1000L + chunk, "version", 1, "score", 0.85 - i * 0.03, "payload", payload));
+        }
+        return hits;
+    }
+}
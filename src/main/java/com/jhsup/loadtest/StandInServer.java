@@ -0,0 +1,145 @@
+package com.jhsup.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Base for the local stand-ins of the external services, on the JDK's HTTP server. Each
+ * route sleeps for a sample of its latency distribution, fails with HTTP 500 at its error
+ * rate, and otherwise answers with a well-formed response. Every call is timed per route,
+ * latency included, so the report shows what each dependency stage cost the application.
+ */
+public abstract class StandInServer implements AutoCloseable {
+
+    /** One endpoint with its latency, error rate and timings. */
+    protected static final class Route {
+        final LatencyModel latency;
+        final double errorRate;
+        final LatencyRecorder recorder;
+
+        Route(String name, LatencyModel latency, double errorRate) {
+            this.latency = latency;
+            this.errorRate = errorRate;
+            this.recorder = new LatencyRecorder(name);
+        }
+    }
+
+    protected static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String name;
+    private final List<Route> routes = new ArrayList<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    protected StandInServer(String name) {
+        this.name = name;
+    }
+
+    protected Route route(String stage, LatencyModel latency, double errorRate) {
+        Route route = new Route(stage, latency, errorRate);
+        routes.add(route);
+        return route;
+    }
+
+    /** @return The route for the request, or null for a 404. */
+    protected abstract Route resolve(String method, String path, JsonNode body);
+
+    /** Writes the successful response; the latency has already been applied. */
+    protected abstract void handle(Route route, HttpExchange exchange, JsonNode body) throws Exception;
+
+    /** Starts listening on a free local port. */
+    public StandInServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        // One thread per call: latency is a sleep, and calls must overlap like on the real service
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+        server.start();
+        return this;
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public List<LatencyRecorder> getRecorders() {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        for (Route route : routes) {
+            recorders.add(route.recorder);
+        }
+        return recorders;
+    }
+
+    public void resetStats() {
+        for (Route route : routes) {
+            route.recorder.reset();
+        }
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        Route route = null;
+        try (exchange) {
+            byte[] requestBody = exchange.getRequestBody().readAllBytes();
+            JsonNode body = requestBody.length == 0 ? mapper.missingNode() : mapper.readTree(requestBody);
+            route = resolve(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), body);
+            if (route == null) {
+                sendJson(exchange, 404, Map.of("status", Map.of("error", "Not found: " + exchange.getRequestURI())));
+                return;
+            }
+            route.latency.sleep();
+            if (ThreadLocalRandom.current().nextDouble() < route.errorRate) {
+                route.recorder.recordError();
+                sendJson(exchange, 500, Map.of("error", Map.of("message", "Injected failure from the " + name + " stand-in")));
+                return;
+            }
+            handle(route, exchange, body);
+            route.recorder.record(System.nanoTime() - start);
+        } catch (Exception e) {
+            if (route != null) route.recorder.recordError();
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+        }
+    }
+
+    protected static void sendJson(HttpExchange exchange, int code, Object body) throws IOException {
+        byte[] bytes = body instanceof byte[] raw ? raw : mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** Starts a chunked text/event-stream response. */
+    protected static OutputStream startEventStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        return exchange.getResponseBody();
+    }
+
+    protected static void sendEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) server.stop(0);
+        if (executor != null) executor.shutdownNow();
+    }
+}
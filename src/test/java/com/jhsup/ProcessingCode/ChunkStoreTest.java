@@ -0,0 +1,99 @@
+package com.jhsup.ProcessingCode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        try (ChunkStore store = new ChunkStore(dir, 1 << 20)) {
+            store.put(1, "notes.pdf", 0, "Mitochondria are the powerhouse of the cell.");
+            store.put(2, "résumé.docx", 3, "Ünïcödé text ✓");
+
+            assertEquals(new ChunkStore.Chunk(1, "notes.pdf", 0, "Mitochondria are the powerhouse of the cell."), store.get(1));
+            assertEquals(new ChunkStore.Chunk(2, "résumé.docx", 3, "Ünïcödé text ✓"), store.get(2));
+            assertNull(store.get(3));
+        }
+    }
+
+    @Test
+    void laterRecordsSupersedeAndTombstonesDelete() throws IOException {
+        try (ChunkStore store = new ChunkStore(dir, 1 << 20)) {
+            store.put(1, "a.pdf", 0, "first");
+            store.put(1, "a.pdf", 0, "second");
+            store.put(2, "b.pdf", 0, "kept");
+            store.delete(List.of(2L, 99L));
+
+            assertEquals("second", store.get(1).text());
+            assertNull(store.get(2));
+        }
+        try (ChunkStore reopened = new ChunkStore(dir, 1 << 20)) {
+            assertEquals("second", reopened.get(1).text());
+            assertNull(reopened.get(2));
+        }
+    }
+
+    @Test
+    void rollsOverToNewSegments() throws IOException {
+        try (ChunkStore store = new ChunkStore(dir, 128)) {
+            for (int i = 0; i < 20; i++) {
+                store.put(i, "file.pdf", i, "chunk number " + i);
+            }
+        }
+        assertTrue(Files.exists(dir.resolve("chunks-00001.dat")));
+        try (ChunkStore reopened = new ChunkStore(dir, 128)) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals("chunk number " + i, reopened.get(i).text());
+            }
+        }
+    }
+
+    @Test
+    void tornRecordIsIgnoredAndTruncatedOnNextWrite() throws IOException {
+        try (ChunkStore store = new ChunkStore(dir, 1 << 20)) {
+            store.put(1, "a.pdf", 0, "complete");
+        }
+        // A writer that crashed mid-record: the length promises more bytes than were written
+        Path segment = dir.resolve("chunks-00000.dat");
+        long intact = Files.size(segment);
+        ByteBuffer torn = ByteBuffer.allocate(12).putInt(500).putLong(2);
+        Files.write(segment, torn.array(), StandardOpenOption.APPEND);
+
+        try (ChunkStore store = new ChunkStore(dir, 1 << 20)) {
+            assertEquals("complete", store.get(1).text());
+            assertNull(store.get(2));
+
+            store.put(3, "c.pdf", 0, "after the crash");
+            assertEquals("after the crash", store.get(3).text());
+        }
+        // The torn bytes were cut off before the new record was appended (24-byte header)
+        assertEquals(intact + 24 + "c.pdf".length() + "after the crash".length(), Files.size(segment));
+        try (ChunkStore reopened = new ChunkStore(dir, 1 << 20)) {
+            assertEquals("complete", reopened.get(1).text());
+            assertNull(reopened.get(2));
+            assertEquals("after the crash", reopened.get(3).text());
+        }
+    }
+
+    @Test
+    void onlyOneWriterAtATime() throws IOException {
+        try (ChunkStore writer = new ChunkStore(dir, 1 << 20);
+             ChunkStore other = new ChunkStore(dir, 1 << 20)) {
+            writer.put(1, "a.pdf", 0, "text");
+            assertThrows(IOException.class, () -> other.put(2, "b.pdf", 0, "text"));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.jhsup.ProcessingCode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswVectorStoreTest {
+
+    private static final int DIMENSIONS = 32;
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void recallAgainstBruteForce() throws Exception {
+        HnswVectorStore store = newStore();
+        float[][] vectors = randomVectors(2000);
+        for (int i = 0; i < vectors.length; i++) {
+            store.upsert(i, vectors[i], payload(i, null));
+        }
+
+        int k = 10;
+        int found = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector();
+            Set<Long> expected = bruteForce(vectors, query, k, Set.of());
+            found += intersection(ids(store.search(query, null, k, -1, Tenant.ANY)), expected);
+        }
+        double recall = (double) found / (queries * k);
+        assertTrue(recall >= 0.9, "recall@10 was " + recall);
+    }
+
+    @Test
+    void deletedAndReplacedPointsAreNotReturned() throws Exception {
+        HnswVectorStore store = newStore();
+        float[][] vectors = randomVectors(500);
+        for (int i = 0; i < vectors.length; i++) {
+            store.upsert(i, vectors[i], payload(i, null));
+        }
+        store.delete(List.of(0L, 1L, 2L));
+        float[] moved = randomVector();
+        store.upsert(3, moved, payload(3, null));
+
+        assertEquals(497, store.size());
+        List<VectorStore.Hit> nearDeleted = store.search(vectors[0], null, 10, -1, Tenant.ANY);
+        assertTrue(Collections.disjoint(ids(nearDeleted), Set.of(0L, 1L, 2L)));
+        VectorStore.Hit top = store.search(moved, null, 1, -1, Tenant.ANY).get(0);
+        assertEquals(3, top.id());
+        assertEquals(1.0, top.score(), 1e-4);
+        assertEquals("file-3.pdf", top.filename());
+    }
+
+    @Test
+    void tenantSearchOnlyReturnsThatTenantsPoints() throws Exception {
+        HnswVectorStore store = newStore();
+        float[][] vectors = randomVectors(1000);
+        for (int i = 0; i < vectors.length; i++) {
+            // One point in ten belongs to alice, so the search has to widen to find ten of hers
+            store.upsert(i, vectors[i], payload(i, Tenant.of(i % 10 == 0 ? "alice" : "bob", null)));
+        }
+
+        List<VectorStore.Hit> hits = store.search(randomVector(), null, 10, -1, Tenant.of("alice", null));
+        assertEquals(10, hits.size());
+        for (VectorStore.Hit hit : hits) {
+            assertEquals(0, hit.id() % 10);
+        }
+    }
+
+    @Test
+    void reopensFromDiskAndCompactsTombstones() throws Exception {
+        HnswVectorStore store = newStore();
+        float[][] vectors = randomVectors(300);
+        for (int i = 0; i < vectors.length; i++) {
+            store.upsert(i, vectors[i], payload(i, null));
+        }
+        store.save();
+        assertTrue(Files.exists(dir.resolve("notes-0.vectors")));
+
+        // Past 20% tombstones, the next save rebuilds into the next vector file
+        List<Long> removed = new ArrayList<>();
+        for (long id = 0; id < 100; id++) {
+            removed.add(id);
+        }
+        store.delete(removed);
+        store.flush();
+        assertFalse(Files.exists(dir.resolve("notes-0.vectors")));
+        assertTrue(Files.exists(dir.resolve("notes-1.vectors")));
+
+        HnswVectorStore reopened = newStore(); // loaded by its first search
+        float[] query = randomVector();
+        Set<Long> expected = bruteForce(vectors, query, 5, new HashSet<>(removed));
+        List<VectorStore.Hit> hits = reopened.search(query, null, 5, -1, Tenant.ANY);
+        assertEquals(200, reopened.size());
+        assertTrue(intersection(ids(hits), expected) >= 4, "hits " + ids(hits) + ", expected " + expected);
+        assertEquals("file-" + hits.get(0).id() + ".pdf", hits.get(0).filename());
+    }
+
+    @Test
+    void minScoreCutsOffWeakHits() throws Exception {
+        HnswVectorStore store = newStore();
+        float[] vector = randomVector();
+        float[] opposite = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            opposite[i] = -vector[i];
+        }
+        store.upsert(1, vector, payload(1, null));
+        store.upsert(2, opposite, payload(2, null));
+
+        List<VectorStore.Hit> hits = store.search(vector, null, 10, 0.5, Tenant.ANY);
+        assertEquals(Set.of(1L), ids(hits));
+    }
+
+    private HnswVectorStore newStore() {
+        return new HnswVectorStore(dir.resolve("notes.hnsw"), DIMENSIONS, 16, 200, 100);
+    }
+
+    private static Map<String, Object> payload(long id, Tenant tenant) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("filename", "file-" + id + ".pdf");
+        payload.put("chunk_index", 0);
+        if (tenant != null) tenant.putInto(payload);
+        return payload;
+    }
+
+    private float[][] randomVectors(int n) {
+        float[][] vectors = new float[n][];
+        for (int i = 0; i < n; i++) {
+            vectors[i] = randomVector();
+        }
+        return vectors;
+    }
+
+    private float[] randomVector() {
+        float[] v = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            v[i] = (float) random.nextGaussian();
+        }
+        return v;
+    }
+
+    /** The IDs of the k vectors with the highest cosine similarity to the query. */
+    private static Set<Long> bruteForce(float[][] vectors, float[] query, int k, Set<Long> excluded) {
+        Integer[] order = new Integer[vectors.length];
+        double[] scores = new double[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            order[i] = i;
+            scores[i] = cosine(vectors[i], query);
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        Set<Long> top = new HashSet<>();
+        for (int i = 0; i < order.length && top.size() < k; i++) {
+            if (!excluded.contains((long) order[i])) top.add((long) order[i]);
+        }
+        return top;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    private static Set<Long> ids(List<VectorStore.Hit> hits) {
+        return hits.stream().map(VectorStore.Hit::id).collect(Collectors.toSet());
+    }
+
+    private static int intersection(Set<Long> a, Set<Long> b) {
+        Set<Long> common = new HashSet<>(a);
+        common.retainAll(b);
+        return common.size();
+    }
+}
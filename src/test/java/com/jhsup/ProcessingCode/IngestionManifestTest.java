@@ -0,0 +1,50 @@
+package com.jhsup.ProcessingCode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionManifestTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesAndLoadsEntriesWithTheirTenant() throws IOException {
+        String path = dir.resolve("manifest.json").toString();
+        IngestionManifest manifest = IngestionManifest.load(path);
+        manifest.put("bio/cells.pdf", new IngestionManifest.Entry(10, 20, "abc", List.of(1L, 2L),
+                Tenant.of("alice@example.com", "bio101")));
+        manifest.put("notes.docx", new IngestionManifest.Entry(30, 40, "def", List.of(3L), Tenant.ANY));
+        manifest.save();
+
+        IngestionManifest loaded = IngestionManifest.load(path);
+        assertEquals(manifest.get("bio/cells.pdf"), loaded.get("bio/cells.pdf"));
+        assertEquals(Tenant.of("alice@example.com", "bio101"), loaded.get("bio/cells.pdf").tenant());
+        assertEquals(Tenant.ANY, loaded.get("notes.docx").tenant());
+    }
+
+    @Test
+    void entriesWrittenBeforeTenantsBelongToNoOne() throws IOException {
+        Path path = Files.writeString(dir.resolve("old.json"),
+                "{\"a.pdf\":{\"size\":1,\"mtime\":2,\"sha256\":\"abc\",\"pointIds\":[7]}}");
+
+        IngestionManifest.Entry entry = IngestionManifest.load(path.toString()).get("a.pdf");
+        assertEquals(List.of(7L), entry.pointIds());
+        assertTrue(entry.tenant().isAny());
+        assertNotEquals(Tenant.of("alice@example.com", null), entry.tenant()); // so setting INGEST_OWNER rewrites it
+    }
+
+    @Test
+    void pointIdsAreStablePerFileAndChunk() {
+        assertEquals(IngestionManifest.pointId("a.pdf", 0), IngestionManifest.pointId("a.pdf", 0));
+        assertNotEquals(IngestionManifest.pointId("a.pdf", 0), IngestionManifest.pointId("a.pdf", 1));
+        assertTrue(IngestionManifest.pointId("b.pdf", 3) >= 0);
+    }
+}
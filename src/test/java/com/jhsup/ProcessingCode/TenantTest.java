@@ -0,0 +1,64 @@
+package com.jhsup.ProcessingCode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantTest {
+
+    @Test
+    void blankFieldsAreUnset() {
+        assertEquals(Tenant.ANY, Tenant.of(" ", null));
+        assertEquals(new Tenant("alice@example.com", null), Tenant.of(" alice@example.com ", ""));
+        assertTrue(Tenant.of(null, "").isAny());
+    }
+
+    @Test
+    void matchesOnlyTheSetFields() {
+        Tenant alice = Tenant.of("alice@example.com", null);
+        assertTrue(alice.matches("alice@example.com", "bio101"));
+        assertFalse(alice.matches("bob@example.com", "bio101"));
+        assertFalse(alice.matches(null, null));
+
+        Tenant course = Tenant.of("alice@example.com", "bio101");
+        assertTrue(course.matches("alice@example.com", "bio101"));
+        assertFalse(course.matches("alice@example.com", "chem201"));
+
+        assertTrue(Tenant.ANY.matches(null, null));
+    }
+
+    @Test
+    void cacheKeysSeparateTenants() {
+        assertNotEquals(Tenant.of("alice@example.com", null).cacheKey(), Tenant.of("alice@example.com", "bio101").cacheKey());
+        assertNotEquals(Tenant.of("a", "b/c").cacheKey(), Tenant.ANY.cacheKey());
+    }
+
+    @Test
+    void writesPayloadAndQdrantFilter() throws IOException {
+        Tenant tenant = Tenant.of("alice@example.com", "bio101");
+        Map<String, Object> payload = new HashMap<>();
+        tenant.putInto(payload);
+        assertEquals(Map.of("owner", "alice@example.com", "course", "bio101"), payload);
+
+        assertEquals("{\"filter\":{\"must\":[{\"key\":\"owner\",\"match\":{\"value\":\"alice@example.com\"}},"
+                + "{\"key\":\"course\",\"match\":{\"value\":\"bio101\"}}]}}", filterJson(tenant));
+        assertEquals("{}", filterJson(Tenant.ANY));
+    }
+
+    private static String filterJson(Tenant tenant) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator g = new ObjectMapper().getFactory().createGenerator(out)) {
+            g.writeStartObject();
+            tenant.writeFilter(g);
+            g.writeEndObject();
+        }
+        return out.toString();
+    }
+}
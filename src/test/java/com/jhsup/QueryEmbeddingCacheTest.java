@@ -0,0 +1,123 @@
+package com.jhsup;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryEmbeddingCacheTest {
+
+    private static final String MODEL = "text-embedding-3-small";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void triviallyDifferentSpellingsShareAnEntry() {
+        QueryEmbeddingCache cache = newCache(10, 60_000);
+        float[] vector = {0.1f, 0.2f};
+        cache.put("What is  ATP?", vector);
+
+        assertSame(vector, cache.get("  what is atp? "));
+        assertSame(vector, cache.get("ｗhat is ATP?")); // fullwidth W, folded by NFKC
+        assertNull(cache.get("what is adp?"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        QueryEmbeddingCache cache = newCache(2, 60_000);
+        cache.put("a", new float[]{1, 0});
+        cache.put("b", new float[]{2, 0});
+        assertNotNull(cache.get("a")); // b is now the eldest
+        cache.put("c", new float[]{3, 0});
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    void expiredEntriesMiss() {
+        QueryEmbeddingCache cache = newCache(10, -1);
+        cache.put("a", new float[]{1, 0});
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void ignoresVectorsOfAnotherSize() {
+        QueryEmbeddingCache cache = newCache(10, 60_000);
+        cache.put("a", new float[]{1, 0, 0});
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void snapshotRoundTrip() throws IOException {
+        Path snapshot = dir.resolve("query-cache.bin");
+        QueryEmbeddingCache cache = newCache(10, 60_000);
+        cache.put("what is atp?", new float[]{0.5f, -0.25f});
+        cache.put("krebs cycle", new float[]{1, 1e-3f});
+        cache.save(snapshot);
+
+        QueryEmbeddingCache restored = newCache(10, 60_000);
+        restored.load(snapshot);
+        assertEquals(2, restored.size());
+        assertArrayEquals(new float[]{0.5f, -0.25f}, restored.get("What is ATP?"));
+        assertArrayEquals(new float[]{1, 1e-3f}, restored.get("krebs cycle"));
+
+        // Entries already past the TTL are not loaded
+        QueryEmbeddingCache expired = newCache(10, -1);
+        expired.load(snapshot);
+        assertEquals(0, expired.size());
+    }
+
+    @Test
+    void snapshotOfAnotherModelOrSizeIsNotLoaded() throws IOException {
+        Path snapshot = dir.resolve("query-cache.bin");
+        QueryEmbeddingCache cache = newCache(10, 60_000);
+        cache.put("what is atp?", new float[]{0.5f, -0.25f});
+        cache.save(snapshot);
+
+        QueryEmbeddingCache resized = new QueryEmbeddingCache(10, 60_000, MODEL, 512);
+        resized.load(snapshot);
+        assertEquals(0, resized.size());
+
+        QueryEmbeddingCache otherModel = new QueryEmbeddingCache(10, 60_000, "text-embedding-3-large", 2);
+        otherModel.load(snapshot);
+        assertEquals(0, otherModel.size());
+    }
+
+    @Test
+    void savesQuestionsLongerThan64KB() throws IOException {
+        Path snapshot = dir.resolve("query-cache.bin");
+        String pasted = "ünïcode ".repeat(20_000);
+        QueryEmbeddingCache cache = newCache(10, 60_000);
+        cache.put(pasted, new float[]{0.5f, 0});
+        cache.save(snapshot);
+
+        QueryEmbeddingCache restored = newCache(10, 60_000);
+        restored.load(snapshot);
+        assertArrayEquals(new float[]{0.5f, 0}, restored.get(pasted));
+    }
+
+    @Test
+    void rejectsAFileThatIsNotASnapshot() throws IOException {
+        Path other = Files.write(dir.resolve("other.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> newCache(10, 60_000).load(other));
+        newCache(10, 60_000).load(dir.resolve("missing.bin")); // no snapshot yet: nothing to do
+    }
+
+    private static QueryEmbeddingCache newCache(int maxEntries, long ttlMillis) {
+        return new QueryEmbeddingCache(maxEntries, ttlMillis, MODEL, 2);
+    }
+}
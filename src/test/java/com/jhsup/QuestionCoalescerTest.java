@@ -0,0 +1,226 @@
+package com.jhsup;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuestionCoalescerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void identicalQuestionsShareOneComputation() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(100, 10_000, 100);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        QuestionCoalescer.Computation computation = listener -> {
+            runs.incrementAndGet();
+            release.await();
+            return "answer";
+        };
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(coalescer.join("q", null, computation, executor));
+        }
+        assertEquals(1, coalescer.inFlight());
+        release.countDown();
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("answer", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, runs.get());
+        assertEquals(0, coalescer.inFlight());
+    }
+
+    @Test
+    void differentKeysRunSeparately() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(100, 10_000, 100);
+        AtomicInteger runs = new AtomicInteger();
+        QuestionCoalescer.Computation computation = listener -> "answer " + runs.incrementAndGet();
+
+        coalescer.join("a", null, computation, executor).get(5, TimeUnit.SECONDS);
+        coalescer.join("b", null, computation, executor).get(5, TimeUnit.SECONDS);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void lateSubscriberGetsReplayThenLiveTokens() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(100, 10_000, 100);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QuestionCoalescer.Computation computation = listener -> {
+            listener.onSources(List.of("notes.pdf"));
+            listener.onToken("Hel");
+            started.countDown();
+            release.await();
+            listener.onToken("lo");
+            return "Hello";
+        };
+
+        Recorder leader = new Recorder();
+        CompletableFuture<String> first = coalescer.join("q", leader, computation, executor);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Recorder follower = new Recorder();
+        CompletableFuture<String> second = coalescer.join("q", follower, computation, executor);
+        release.countDown();
+
+        assertEquals("Hello", first.get(5, TimeUnit.SECONDS));
+        assertEquals("Hello", second.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("sources:[notes.pdf]", "Hel", "lo"), leader.events);
+        assertEquals(List.of("sources:[notes.pdf]", "Hel", "lo"), follower.events);
+    }
+
+    @Test
+    void failureReachesEverySubscriber() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(100, 10_000, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        QuestionCoalescer.Computation computation = listener -> {
+            release.await();
+            throw new IllegalStateException("search failed");
+        };
+
+        CompletableFuture<String> first = coalescer.join("q", null, computation, executor);
+        CompletableFuture<String> second = coalescer.join("q", new Recorder(), computation, executor);
+        release.countDown();
+
+        for (CompletableFuture<String> result : List.of(first, second)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+        assertEquals(0, coalescer.inFlight());
+    }
+
+    @Test
+    void rejectsSubscribersPastTheLimit() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(2, 10_000, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        QuestionCoalescer.Computation computation = listener -> {
+            release.await();
+            return "answer";
+        };
+
+        CompletableFuture<String> first = coalescer.join("q", null, computation, executor);
+        CompletableFuture<String> second = coalescer.join("q", null, computation, executor);
+        assertThrows(RejectedExecutionException.class, () -> coalescer.join("q", null, computation, executor));
+        release.countDown();
+
+        assertEquals("answer", first.get(5, TimeUnit.SECONDS));
+        assertEquals("answer", second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void subscriberTimesOutAndStaleComputationIsReplaced() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(100, 200, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        QuestionCoalescer.Computation stuck = listener -> {
+            runs.incrementAndGet();
+            release.await();
+            return "late";
+        };
+
+        CompletableFuture<String> first = coalescer.join("q", null, stuck, executor);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+
+        // The stuck computation is past the timeout: a duplicate starts a fresh one
+        CompletableFuture<String> second = coalescer.join("q", null, listener -> "fresh", executor);
+        assertEquals("fresh", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        release.countDown();
+    }
+
+    @Test
+    void rejectedByExecutorLeavesNothingInFlight() {
+        QuestionCoalescer coalescer = new QuestionCoalescer(100, 10_000, 100);
+        assertThrows(RejectedExecutionException.class, () -> coalescer.join("q", null, listener -> "answer",
+                command -> { throw new RejectedExecutionException("full"); }));
+        assertEquals(0, coalescer.inFlight());
+    }
+
+    @Test
+    void manyStreamingSubscribersShareABoundedSenderPool() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(1000, 10_000, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        QuestionCoalescer.Computation computation = listener -> {
+            release.await();
+            for (int i = 0; i < 20; i++) {
+                listener.onToken("t" + i);
+            }
+            return "answer";
+        };
+
+        List<Recorder> recorders = new ArrayList<>();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            results.add(coalescer.join("q", recorder, computation, executor));
+        }
+        release.countDown();
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("answer", result.get(5, TimeUnit.SECONDS));
+        }
+        for (Recorder recorder : recorders) {
+            assertEquals(20, recorder.events.size());
+        }
+        long senders = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("coalesce-send"))
+                .count();
+        assertTrue(senders <= 16, senders + " sender threads");
+    }
+
+    @Test
+    void completedSubscribersCancelTheirTimeouts() throws Exception {
+        QuestionCoalescer coalescer = new QuestionCoalescer(100, 60_000, 100);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            results.add(coalescer.join("q" + i, new Recorder(), listener -> "answer", executor));
+        }
+        for (CompletableFuture<String> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (QuestionCoalescer.pendingTimeouts() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, QuestionCoalescer.pendingTimeouts());
+    }
+
+    /** Records what a streaming client was sent, in order. */
+    private static final class Recorder implements ChatComplete.StreamListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onSources(List<String> sources) {
+            events.add("sources:" + sources);
+        }
+
+        @Override
+        public void onToken(String token) {
+            events.add(token);
+        }
+    }
+}
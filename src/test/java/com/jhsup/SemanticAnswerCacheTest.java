@@ -0,0 +1,94 @@
+package com.jhsup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SemanticAnswerCacheTest {
+
+    private static final String ALICE = "alice@example.com/";
+    private static final String BOB = "bob@example.com/";
+    private static final List<String> SOURCES = List.of("cells.pdf (p. 3)");
+
+    @Test
+    void similarQuestionHitsAndDissimilarOneMisses() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95, 60_000);
+        cache.put(new float[]{1, 0, 0}, ALICE, "answer", SOURCES, 1);
+
+        // Same direction at a different length is the same question
+        assertEquals("answer", text(cache.get(new float[]{2, 0.1f, 0}, ALICE, 1)));
+        assertNull(cache.get(new float[]{1, 1, 0}, ALICE, 1)); // cosine 0.71
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void returnsTheMostSimilarEntry() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.9, 60_000);
+        cache.put(new float[]{1, 0.3f, 0}, ALICE, "further", SOURCES, 1);
+        cache.put(new float[]{1, 0.05f, 0}, ALICE, "closest", SOURCES, 1);
+
+        assertEquals("closest", text(cache.get(new float[]{1, 0, 0}, ALICE, 1)));
+    }
+
+    @Test
+    void answersAreNotSharedAcrossTenants() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95, 60_000);
+        cache.put(new float[]{1, 0, 0}, ALICE, "alice's answer", SOURCES, 1);
+
+        assertNull(cache.get(new float[]{1, 0, 0}, BOB, 1));
+        assertEquals("alice's answer", text(cache.get(new float[]{1, 0, 0}, ALICE, 1)));
+    }
+
+    @Test
+    void newGenerationDropsOlderEntries() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95, 60_000);
+        cache.put(new float[]{1, 0, 0}, ALICE, "old", SOURCES, 1);
+        cache.put(new float[]{0, 1, 0}, BOB, "old too", SOURCES, 1);
+
+        assertNull(cache.get(new float[]{1, 0, 0}, ALICE, 2));
+        assertEquals(0, cache.size()); // every entry from generation 1 was dropped, not just the tenant's
+
+        cache.put(new float[]{1, 0, 0}, ALICE, "new", SOURCES, 2);
+        assertEquals("new", text(cache.get(new float[]{1, 0, 0}, ALICE, 2)));
+    }
+
+    @Test
+    void expiredEntriesAreDropped() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95, -1);
+        cache.put(new float[]{1, 0, 0}, ALICE, "answer", SOURCES, 1);
+
+        assertNull(cache.get(new float[]{1, 0, 0}, ALICE, 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(2, 0.95, 60_000);
+        cache.put(new float[]{1, 0, 0}, ALICE, "x", SOURCES, 1);
+        cache.put(new float[]{0, 1, 0}, ALICE, "y", SOURCES, 1);
+        assertEquals("x", text(cache.get(new float[]{1, 0, 0}, ALICE, 1))); // y is now the eldest
+        cache.put(new float[]{0, 0, 1}, ALICE, "z", SOURCES, 1);
+
+        assertEquals(2, cache.size());
+        assertEquals("x", text(cache.get(new float[]{1, 0, 0}, ALICE, 1)));
+        assertNull(cache.get(new float[]{0, 1, 0}, ALICE, 1));
+        assertEquals("z", text(cache.get(new float[]{0, 0, 1}, ALICE, 1)));
+    }
+
+    @Test
+    void hitsReplayTheSourcesOfTheOriginalAnswer() {
+        SemanticAnswerCache cache = new SemanticAnswerCache(10, 0.95, 60_000);
+        cache.put(new float[]{1, 0, 0}, ALICE, "answer", List.of("cells.pdf (p. 3)", "krebs.pptx (slide 2)"), 1);
+
+        SemanticAnswerCache.Answer hit = cache.get(new float[]{1, 0, 0}, ALICE, 1);
+        assertEquals("answer", hit.text());
+        assertEquals(List.of("cells.pdf (p. 3)", "krebs.pptx (slide 2)"), hit.sources());
+    }
+
+    private static String text(SemanticAnswerCache.Answer answer) {
+        return answer == null ? null : answer.text();
+    }
+}